@@ -0,0 +1,94 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import be.nabu.libs.services.ServiceUtils;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.pojo.BatchResult;
+import be.nabu.libs.services.pojo.MethodService;
+import be.nabu.libs.services.pojo.POJOResolver;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Compares the throughput of a batch execution with the same amount of individual executions, the score is per input
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+	private static final int BATCH_SIZE = 10000;
+	
+	private MethodService service;
+	private ExecutionContext context;
+	private List<ComplexContent> inputs = new ArrayList<ComplexContent>();
+	
+	@Setup
+	public void setup() {
+		service = (MethodService) new POJOResolver().resolve(BenchmarkServices.class.getName() + ".concat");
+		context = ServiceUtils.newExecutionContext();
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+			input.set("a", "value");
+			input.set("b", Integer.toString(i));
+			inputs.add(input);
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void individual(Blackhole blackhole) throws ServiceException {
+		for (ComplexContent input : inputs) {
+			blackhole.consume(service.newInstance().execute(context, input));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void batch(final Blackhole blackhole) {
+		service.newInstance().executeBatch(context, inputs).forEach(new Consumer<BatchResult>() {
+			@Override
+			public void accept(BatchResult result) {
+				blackhole.consume(result.getOutput());
+			}
+		});
+	}
+}
@@ -0,0 +1,89 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.authentication.api.Token;
+import be.nabu.libs.services.ServiceUtils;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.ExecutionContextProvider;
+import be.nabu.libs.services.pojo.BatchingServiceRunner;
+import be.nabu.libs.services.pojo.MethodService;
+import be.nabu.libs.services.pojo.POJOUtils;
+import be.nabu.libs.types.DefinedTypeResolverFactory;
+
+/**
+ * Many threads doing synchronous proxy calls to a remote lookup, either each call on its own or collected by the batching runner.
+ * The remote system only has a few connections, so without batching the throughput is capped at the connections divided by the latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+public class BatchingRunnerBenchmark {
+
+	@Param({ "true", "false" })
+	private boolean batched;
+	
+	private BatchingServiceRunner runner;
+	private LookupInterface proxy;
+	
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		runner = batched ? new BatchingServiceRunner(64, 1, TimeUnit.MILLISECONDS) : null;
+		MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), LookupServices.class, LookupInterface.class.getMethod("lookup", long.class));
+		final ExecutionContext context = ServiceUtils.newExecutionContext();
+		proxy = POJOUtils.newProxy(LookupInterface.class, new ExecutionContextProvider() {
+			@Override
+			public ExecutionContext newExecutionContext(Token primary, Token...alternatives) {
+				return context;
+			}
+		}, null, runner, service);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		if (runner != null) {
+			runner.shutdown();
+		}
+	}
+	
+	@Benchmark
+	public String lookup() {
+		return proxy.lookup(1);
+	}
+}
@@ -0,0 +1,81 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.services.pojo.BeanMapper;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Converts a list of documents to beans with the generic TypeUtils conversion and with a compiled mapper
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BeanMapperBenchmark {
+
+	@Param({ "100", "10000" })
+	private int listSize;
+	
+	private List<ComplexContent> beans;
+	private BeanMapper<BenchmarkBean> mapper;
+	
+	@Setup
+	public void setup() {
+		beans = BenchmarkData.newBeans(listSize);
+		mapper = BeanMapper.getMapper(BenchmarkBean.class);
+	}
+	
+	@Benchmark
+	public List<BenchmarkBean> typeUtils() {
+		List<BenchmarkBean> result = new ArrayList<BenchmarkBean>(beans.size());
+		for (ComplexContent bean : beans) {
+			result.add(TypeUtils.getAsBean(bean, BenchmarkBean.class));
+		}
+		return result;
+	}
+	
+	@Benchmark
+	public List<BenchmarkBean> compiled() {
+		List<BenchmarkBean> result = new ArrayList<BenchmarkBean>(beans.size());
+		for (ComplexContent bean : beans) {
+			result.add(mapper.toBean(bean));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,110 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.nabu.libs.types.DefinedTypeResolverFactory;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.DefinedTypeResolver;
+import be.nabu.libs.types.api.SimpleType;
+import be.nabu.libs.types.base.ComplexElementImpl;
+import be.nabu.libs.types.base.SimpleElementImpl;
+import be.nabu.libs.types.base.ValueImpl;
+import be.nabu.libs.types.properties.MaxOccursProperty;
+import be.nabu.libs.types.structure.Structure;
+
+/**
+ * Builds generic documents that have the same shape as the benchmark beans, so they have to be converted when passed to a pojo service
+ */
+public class BenchmarkData {
+	
+	private static Structure beanStructure, orderStructure;
+	
+	@SuppressWarnings("unchecked")
+	public static synchronized Structure getBeanStructure() {
+		if (beanStructure == null) {
+			DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+			Structure structure = new Structure();
+			structure.setName("benchmarkBean");
+			structure.add(new SimpleElementImpl<String>("name", (SimpleType<String>) resolver.resolve(String.class.getName()), structure));
+			structure.add(new SimpleElementImpl<Integer>("age", (SimpleType<Integer>) resolver.resolve(Integer.class.getName()), structure));
+			beanStructure = structure;
+		}
+		return beanStructure;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static synchronized Structure getOrderStructure() {
+		if (orderStructure == null) {
+			DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+			SimpleType<String> string = (SimpleType<String>) resolver.resolve(String.class.getName());
+			Structure line = new Structure();
+			line.setName("benchmarkOrderLine");
+			line.add(new SimpleElementImpl<String>("product", string, line));
+			line.add(new SimpleElementImpl<String>("description", string, line));
+			line.add(new SimpleElementImpl<Integer>("quantity", (SimpleType<Integer>) resolver.resolve(Integer.class.getName()), line));
+			Structure order = new Structure();
+			order.setName("benchmarkOrder");
+			order.add(new SimpleElementImpl<String>("id", string, order));
+			order.add(new SimpleElementImpl<String>("customer", string, order));
+			order.add(new ComplexElementImpl("lines", line, order, new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0)));
+			orderStructure = order;
+		}
+		return orderStructure;
+	}
+	
+	/**
+	 * An order with the given amount of lines
+	 */
+	public static ComplexContent newOrder(int lines) {
+		Structure structure = getOrderStructure();
+		ComplexType lineType = (ComplexType) structure.get("lines").getType();
+		ComplexContent order = structure.newInstance();
+		order.set("id", "order-" + lines);
+		order.set("customer", "customer");
+		List<ComplexContent> orderLines = new ArrayList<ComplexContent>();
+		for (int i = 0; i < lines; i++) {
+			ComplexContent line = lineType.newInstance();
+			line.set("product", "product" + i);
+			line.set("description", "the description of product " + i);
+			line.set("quantity", i % 10);
+			orderLines.add(line);
+		}
+		order.set("lines", orderLines);
+		return order;
+	}
+	
+	public static ComplexContent newBean(int index) {
+		ComplexContent bean = getBeanStructure().newInstance();
+		bean.set("name", "name" + index);
+		bean.set("age", index % 100);
+		return bean;
+	}
+	
+	public static List<ComplexContent> newBeans(int amount) {
+		List<ComplexContent> beans = new ArrayList<ComplexContent>();
+		for (int i = 0; i < amount; i++) {
+			beans.add(newBean(i));
+		}
+		return beans;
+	}
+}
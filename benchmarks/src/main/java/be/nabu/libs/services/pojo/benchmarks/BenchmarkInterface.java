@@ -0,0 +1,30 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import javax.jws.WebParam;
+import javax.jws.WebResult;
+
+/**
+ * The java interface that is proxied in the benchmarks
+ */
+public interface BenchmarkInterface {
+	@WebResult(name = "result")
+	public String concat(@WebParam(name = "a") String a, @WebParam(name = "b") String b);
+}
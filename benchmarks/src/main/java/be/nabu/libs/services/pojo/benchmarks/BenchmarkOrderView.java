@@ -0,0 +1,37 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.List;
+
+/**
+ * The same document as BenchmarkOrder, but as interfaces so it can be passed as a lazy view
+ */
+public interface BenchmarkOrderView {
+	
+	public String getId();
+	public String getCustomer();
+	public List<Line> getLines();
+	
+	public interface Line {
+		public String getProduct();
+		public String getDescription();
+		public Integer getQuantity();
+	}
+}
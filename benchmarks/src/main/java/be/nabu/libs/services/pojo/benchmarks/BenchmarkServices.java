@@ -0,0 +1,83 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.List;
+
+import javax.jws.WebParam;
+import javax.jws.WebResult;
+
+import be.nabu.libs.services.pojo.LazyBean;
+
+/**
+ * The pojo services that are used by the benchmarks
+ */
+public class BenchmarkServices implements BenchmarkInterface {
+	
+	@WebResult(name = "result")
+	public int add(@WebParam(name = "a") int a, @WebParam(name = "b") int b) {
+		return a + b;
+	}
+	
+	@Override
+	@WebResult(name = "result")
+	public String concat(@WebParam(name = "a") String a, @WebParam(name = "b") String b) {
+		return a + b;
+	}
+	
+	@WebResult(name = "result")
+	public String describe(@WebParam(name = "bean") BenchmarkBean bean) {
+		return bean.getName();
+	}
+	
+	@WebResult(name = "result")
+	public int count(@WebParam(name = "beans") List<BenchmarkBean> beans) {
+		return beans.size();
+	}
+	
+	@WebResult(name = "result")
+	public String orderId(@WebParam(name = "order") BenchmarkOrder order) {
+		return order.getId();
+	}
+	
+	@WebResult(name = "result")
+	public int orderQuantity(@WebParam(name = "order") BenchmarkOrder order) {
+		int quantity = 0;
+		for (BenchmarkOrder.Line line : order.getLines()) {
+			quantity += line.getQuantity();
+		}
+		return quantity;
+	}
+	
+	@LazyBean
+	@WebResult(name = "result")
+	public String lazyOrderId(@WebParam(name = "order") BenchmarkOrderView order) {
+		return order.getId();
+	}
+	
+	@LazyBean
+	@WebResult(name = "result")
+	public int lazyOrderQuantity(@WebParam(name = "order") BenchmarkOrderView order) {
+		int quantity = 0;
+		for (BenchmarkOrderView.Line line : order.getLines()) {
+			quantity += line.getQuantity();
+		}
+		return quantity;
+	}
+}
@@ -0,0 +1,35 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.concurrent.CompletionStage;
+
+import javax.jws.WebParam;
+import javax.jws.WebResult;
+
+import be.nabu.libs.services.pojo.AsyncResult;
+
+/**
+ * A proxied interface for a service that blocks on (simulated) I/O
+ */
+@AsyncResult
+public interface BlockingInterface {
+	@WebResult(name = "result")
+	public CompletionStage<String> fetch(@WebParam(name = "id") String id);
+}
@@ -0,0 +1,78 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.services.ServiceUtils;
+import be.nabu.libs.services.api.DefinedService;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.pojo.POJOResolver;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Resolves and executes the same service from many threads at once, this exposes any shared locks or contended counters
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class ContentionBenchmark {
+
+	private static final String ID = BenchmarkServices.class.getName() + ".concat";
+	
+	private POJOResolver resolver;
+	private ExecutionContext context;
+	private ComplexContent input;
+	
+	@Setup
+	public void setup() {
+		resolver = new POJOResolver();
+		context = ServiceUtils.newExecutionContext();
+		input = resolver.resolve(ID).getServiceInterface().getInputDefinition().newInstance();
+		input.set("a", "a");
+		input.set("b", "b");
+	}
+	
+	@Benchmark
+	public DefinedService resolve() {
+		return resolver.resolve(ID);
+	}
+	
+	@Benchmark
+	public ComplexContent resolveAndExecute() throws ServiceException {
+		return resolver.resolve(ID).newInstance().execute(context, input);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.services.ServiceUtils;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.pojo.MethodService;
+import be.nabu.libs.services.pojo.POJOResolver;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Executes services whose arguments need increasingly more conversion: simple values, a single bean and a list of beans
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+
+	@Param({ "10", "1000", "10000" })
+	private int listSize;
+	
+	private ExecutionContext context;
+	private MethodService simple, bean, collection;
+	private ComplexContent simpleInput, beanInput, collectionInput;
+	
+	@Setup
+	public void setup() {
+		POJOResolver resolver = new POJOResolver();
+		context = ServiceUtils.newExecutionContext();
+		
+		simple = (MethodService) resolver.resolve(BenchmarkServices.class.getName() + ".add");
+		simpleInput = simple.getServiceInterface().getInputDefinition().newInstance();
+		simpleInput.set("a", 1);
+		simpleInput.set("b", 2);
+		
+		bean = (MethodService) resolver.resolve(BenchmarkServices.class.getName() + ".describe");
+		beanInput = bean.getServiceInterface().getInputDefinition().newInstance();
+		beanInput.set("bean", BenchmarkData.newBean(0));
+		
+		collection = (MethodService) resolver.resolve(BenchmarkServices.class.getName() + ".count");
+		collectionInput = collection.getServiceInterface().getInputDefinition().newInstance();
+		collectionInput.set("beans", BenchmarkData.newBeans(listSize));
+	}
+	
+	@Benchmark
+	public ComplexContent simple() throws ServiceException {
+		return simple.newInstance().execute(context, simpleInput);
+	}
+	
+	@Benchmark
+	public ComplexContent bean() throws ServiceException {
+		return bean.newInstance().execute(context, beanInput);
+	}
+	
+	@Benchmark
+	public ComplexContent collection() throws ServiceException {
+		return collection.newInstance().execute(context, collectionInput);
+	}
+}
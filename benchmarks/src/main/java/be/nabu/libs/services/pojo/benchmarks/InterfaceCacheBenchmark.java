@@ -0,0 +1,92 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.services.pojo.MethodServiceInterface;
+
+/**
+ * Measures MethodServiceInterface.wrap() under contention against the previous globally synchronized map
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class InterfaceCacheBenchmark {
+
+	private Method method;
+	private Map<Method, MethodServiceInterface> legacy = new HashMap<Method, MethodServiceInterface>();
+	
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		method = BenchmarkServices.class.getMethod("concat", String.class, String.class);
+	}
+	
+	@Benchmark
+	public MethodServiceInterface wrap() {
+		return MethodServiceInterface.wrap(method);
+	}
+	
+	/**
+	 * A replica of the original approach: racy reads on a plain map with a global lock for writes
+	 */
+	@Benchmark
+	public MethodServiceInterface legacyWrap() {
+		if (!legacy.containsKey(method)) {
+			synchronized(MethodServiceInterface.class) {
+				if (!legacy.containsKey(method)) {
+					legacy.put(method, MethodServiceInterface.wrap(method));
+				}
+			}
+		}
+		return legacy.get(method);
+	}
+	
+	/**
+	 * The original approach when every read has to be made safe by taking the global lock
+	 */
+	@Benchmark
+	public MethodServiceInterface lockedWrap() {
+		synchronized(MethodServiceInterface.class) {
+			if (!legacy.containsKey(method)) {
+				legacy.put(method, MethodServiceInterface.wrap(method));
+			}
+			return legacy.get(method);
+		}
+	}
+}
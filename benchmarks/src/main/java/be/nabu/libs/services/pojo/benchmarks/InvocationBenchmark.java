@@ -0,0 +1,93 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.services.ServiceUtils;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.pojo.InvocationStrategy;
+import be.nabu.libs.services.pojo.MethodInvoker;
+import be.nabu.libs.services.pojo.MethodService;
+import be.nabu.libs.services.pojo.MethodServiceInstance;
+import be.nabu.libs.services.pojo.POJOResolver;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Compares the invocation strategies, both the raw invoker and the full service execution
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvocationBenchmark {
+
+	@Param({ "REFLECTION", "METHOD_HANDLE" })
+	private InvocationStrategy strategy;
+	
+	private BenchmarkServices target;
+	private MethodInvoker invoker;
+	private Object[] arguments;
+	private MethodServiceInstance instance;
+	private ExecutionContext context;
+	private ComplexContent input;
+	
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		target = new BenchmarkServices();
+		Method method = BenchmarkServices.class.getMethod("add", int.class, int.class);
+		invoker = strategy.newInvoker(method);
+		arguments = new Object[] { 1, 2 };
+		
+		MethodService service = (MethodService) new POJOResolver().resolve(BenchmarkServices.class.getName() + ".add");
+		service.setInvocationStrategy(strategy);
+		instance = service.newInstance();
+		context = ServiceUtils.newExecutionContext();
+		input = service.getServiceInterface().getInputDefinition().newInstance();
+		input.set("a", 1);
+		input.set("b", 2);
+	}
+	
+	@Benchmark
+	public Object invoke() throws IllegalAccessException, InvocationTargetException {
+		return invoker.invoke(target, arguments);
+	}
+	
+	@Benchmark
+	public ComplexContent execute() throws ServiceException {
+		return instance.execute(context, input);
+	}
+}
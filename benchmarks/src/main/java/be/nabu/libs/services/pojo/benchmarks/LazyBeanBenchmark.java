@@ -0,0 +1,92 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.services.ServiceUtils;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.pojo.MethodService;
+import be.nabu.libs.services.pojo.POJOResolver;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Passes a large order to a service that reads a single field or every line, with eager conversion and with a lazy view
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LazyBeanBenchmark {
+
+	@Param({ "10", "1000" })
+	private int lines;
+	
+	private ExecutionContext context;
+	private MethodService orderId, orderQuantity, lazyOrderId, lazyOrderQuantity;
+	private ComplexContent input;
+	
+	@Setup
+	public void setup() {
+		POJOResolver resolver = new POJOResolver();
+		context = ServiceUtils.newExecutionContext();
+		orderId = (MethodService) resolver.resolve(BenchmarkServices.class.getName() + ".orderId");
+		orderQuantity = (MethodService) resolver.resolve(BenchmarkServices.class.getName() + ".orderQuantity");
+		lazyOrderId = (MethodService) resolver.resolve(BenchmarkServices.class.getName() + ".lazyOrderId");
+		lazyOrderQuantity = (MethodService) resolver.resolve(BenchmarkServices.class.getName() + ".lazyOrderQuantity");
+		// all services have the same input
+		input = orderId.getServiceInterface().getInputDefinition().newInstance();
+		input.set("order", BenchmarkData.newOrder(lines));
+	}
+	
+	@Benchmark
+	public ComplexContent eagerSingleField() throws ServiceException {
+		return orderId.newInstance().execute(context, input);
+	}
+	
+	@Benchmark
+	public ComplexContent lazySingleField() throws ServiceException {
+		return lazyOrderId.newInstance().execute(context, input);
+	}
+	
+	@Benchmark
+	public ComplexContent eagerAllLines() throws ServiceException {
+		return orderQuantity.newInstance().execute(context, input);
+	}
+	
+	@Benchmark
+	public ComplexContent lazyAllLines() throws ServiceException {
+		return lazyOrderQuantity.newInstance().execute(context, input);
+	}
+}
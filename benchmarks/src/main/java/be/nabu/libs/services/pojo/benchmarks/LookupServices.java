@@ -0,0 +1,61 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import be.nabu.libs.services.pojo.BatchedBy;
+
+/**
+ * Simulates a remote system behind a small connection pool, a round trip holds a connection for the same time whether it looks up one id or many
+ */
+public class LookupServices implements LookupInterface {
+	
+	public static final int CONNECTIONS = 4;
+	public static final long LATENCY = 2;
+	
+	private static final Semaphore connections = new Semaphore(CONNECTIONS);
+	
+	@BatchedBy("lookupAll")
+	@Override
+	public String lookup(long id) {
+		return lookupAll(Arrays.asList(id)).get(0);
+	}
+	
+	public List<String> lookupAll(List<Long> ids) {
+		connections.acquireUninterruptibly();
+		try {
+			Thread.sleep(LATENCY);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			connections.release();
+		}
+		List<String> results = new ArrayList<String>(ids.size());
+		for (Long id : ids) {
+			results.add("value" + id);
+		}
+		return results;
+	}
+}
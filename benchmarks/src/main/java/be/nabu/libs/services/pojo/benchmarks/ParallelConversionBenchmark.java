@@ -0,0 +1,85 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.services.ServiceUtils;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.pojo.MethodService;
+import be.nabu.libs.services.pojo.POJOResolver;
+import be.nabu.libs.services.pojo.ParallelConversion;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Converts collection arguments sequentially and in parallel, the crossover point is the list size where parallel becomes faster
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelConversionBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000" })
+	private int listSize;
+	
+	@Param({ "false", "true" })
+	private boolean parallel;
+	
+	private int threshold;
+	private ExecutionContext context;
+	private MethodService collection;
+	private ComplexContent input;
+	
+	@Setup
+	public void setup() {
+		threshold = ParallelConversion.getThreshold();
+		ParallelConversion.setThreshold(parallel ? 1 : 0);
+		context = ServiceUtils.newExecutionContext();
+		collection = (MethodService) new POJOResolver().resolve(BenchmarkServices.class.getName() + ".count");
+		input = collection.getServiceInterface().getInputDefinition().newInstance();
+		input.set("beans", BenchmarkData.newBeans(listSize));
+	}
+	
+	@TearDown
+	public void tearDown() {
+		ParallelConversion.setThreshold(threshold);
+	}
+	
+	@Benchmark
+	public ComplexContent collection() throws ServiceException {
+		return collection.newInstance().execute(context, input);
+	}
+}
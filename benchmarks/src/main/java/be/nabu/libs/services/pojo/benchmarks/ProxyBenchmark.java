@@ -0,0 +1,88 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.authentication.api.Token;
+import be.nabu.libs.services.ServiceUtils;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.ExecutionContextProvider;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.pojo.MethodService;
+import be.nabu.libs.services.pojo.POJOUtils;
+import be.nabu.libs.types.DefinedTypeResolverFactory;
+
+/**
+ * Round trips through a proxy, comparing java.lang.reflect.Proxy with generated proxy classes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyBenchmark {
+
+	@Param({ "false", "true" })
+	private boolean generated;
+	
+	/**
+	 * The amount of services backing the proxy, only the last one implements the interface
+	 */
+	@Param({ "1", "32" })
+	private int services;
+	
+	private BenchmarkInterface proxy;
+	
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), BenchmarkServices.class, BenchmarkInterface.class.getMethod("concat", String.class, String.class));
+		Service[] services = new Service[this.services];
+		for (int i = 0; i < services.length - 1; i++) {
+			services[i] = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), BenchmarkServices.class, BenchmarkServices.class.getMethod("add", int.class, int.class));
+		}
+		services[services.length - 1] = service;
+		POJOUtils.setGenerateProxies(generated);
+		final ExecutionContext context = ServiceUtils.newExecutionContext();
+		proxy = POJOUtils.newProxy(BenchmarkInterface.class, new ExecutionContextProvider() {
+			@Override
+			public ExecutionContext newExecutionContext(Token primary, Token...alternatives) {
+				return context;
+			}
+		}, null, services);
+	}
+	
+	@Benchmark
+	public String invoke() {
+		return proxy.concat("a", "b");
+	}
+}
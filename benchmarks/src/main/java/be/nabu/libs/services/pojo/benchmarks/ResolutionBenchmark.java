@@ -0,0 +1,91 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.services.api.DefinedService;
+import be.nabu.libs.services.pojo.MethodServiceInterface;
+import be.nabu.libs.services.pojo.POJOResolver;
+import be.nabu.libs.types.DefinedTypeResolverFactory;
+import be.nabu.libs.types.api.ComplexType;
+
+/**
+ * Cold resolution starts from an empty resolver or a new interface, warm resolution reuses what was built before
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResolutionBenchmark {
+
+	private static final String ID = BenchmarkServices.class.getName() + ".describe";
+	
+	private POJOResolver resolver;
+	private Method method;
+	private MethodServiceInterface iface;
+	
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		resolver = new POJOResolver();
+		resolver.resolve(ID);
+		method = BenchmarkServices.class.getMethod("describe", BenchmarkBean.class);
+		iface = MethodServiceInterface.wrap(method);
+		iface.getInputDefinition();
+	}
+	
+	@Benchmark
+	public DefinedService coldResolve() {
+		return new POJOResolver().resolve(ID);
+	}
+	
+	@Benchmark
+	public DefinedService warmResolve() {
+		return resolver.resolve(ID);
+	}
+	
+	@Benchmark
+	public DefinedService negativeResolve() {
+		return resolver.resolve("be.nabu.does.not.Exist.method");
+	}
+	
+	@Benchmark
+	public ComplexType coldInputDefinition() {
+		return new MethodServiceInterface(DefinedTypeResolverFactory.getInstance().getResolver(), method).getInputDefinition();
+	}
+	
+	@Benchmark
+	public ComplexType warmInputDefinition() {
+		return iface.getInputDefinition();
+	}
+}
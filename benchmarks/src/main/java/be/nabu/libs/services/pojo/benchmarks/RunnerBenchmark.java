@@ -0,0 +1,100 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.benchmarks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import be.nabu.libs.authentication.api.Token;
+import be.nabu.libs.services.ServiceUtils;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.ExecutionContextProvider;
+import be.nabu.libs.services.pojo.MethodService;
+import be.nabu.libs.services.pojo.POJOUtils;
+import be.nabu.libs.services.pojo.VirtualThreadServiceRunner;
+import be.nabu.libs.types.DefinedTypeResolverFactory;
+
+/**
+ * Thousands of concurrent proxy calls to a blocking service, comparing virtual threads with a platform thread pool.
+ * The throughput is expressed in calls per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RunnerBenchmark {
+
+	private static final int CALLS = 2000;
+	
+	@Param({ "true", "false" })
+	private boolean virtual;
+	
+	/**
+	 * The concurrency cap of the runner, 0 means unlimited
+	 */
+	@Param({ "0", "200" })
+	private int maxConcurrent;
+	
+	private VirtualThreadServiceRunner runner;
+	private BlockingInterface proxy;
+	
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		runner = new VirtualThreadServiceRunner(maxConcurrent, virtual);
+		MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), BlockingServices.class, BlockingInterface.class.getMethod("fetch", String.class));
+		final ExecutionContext context = ServiceUtils.newExecutionContext();
+		proxy = POJOUtils.newProxy(BlockingInterface.class, new ExecutionContextProvider() {
+			@Override
+			public ExecutionContext newExecutionContext(Token primary, Token...alternatives) {
+				return context;
+			}
+		}, null, runner, service);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		runner.shutdown();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(CALLS)
+	public void fetch() {
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[CALLS];
+		for (int i = 0; i < CALLS; i++) {
+			futures[i] = proxy.fetch("id" + i).toCompletableFuture();
+		}
+		CompletableFuture.allOf(futures).join();
+	}
+}
@@ -0,0 +1,262 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates a GeneratedInvokers implementation for every class annotated with @POJOService.
+ * The generated class calls the public methods of the service directly so no reflection is needed at runtime.
+ * The generated classes are listed in an index so the runtime only looks for invokers that actually exist.
+ */
+@SupportedAnnotationTypes(POJOServiceProcessor.ANNOTATION)
+public class POJOServiceProcessor extends AbstractProcessor {
+
+	static final String ANNOTATION = "be.nabu.libs.services.pojo.POJOService";
+	static final String SUFFIX = "$POJOInvokers";
+	static final String INDEX = "META-INF/services/be.nabu.libs.services.pojo.GeneratedInvokers";
+	
+	/**
+	 * All the classes generated over all rounds, the index is written in the last round
+	 */
+	private Set<String> generated = new TreeSet<String>();
+	
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+	
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver()) {
+			writeIndex();
+			return false;
+		}
+		for (TypeElement annotation : annotations) {
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				if (element.getKind() != ElementKind.CLASS) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Only classes can be annotated with @POJOService", element);
+				}
+				else if (!isAccessible((TypeElement) element)) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "No invokers are generated for a private or local class, it will be invoked using reflection", element);
+				}
+				else {
+					try {
+						generate((TypeElement) element);
+					}
+					catch (IOException e) {
+						processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not generate invokers: " + e.getMessage(), element);
+					}
+				}
+			}
+		}
+		return false;
+	}
+	
+	// the generated class lives in the same package so anything that is not private can be called
+	private boolean isAccessible(TypeElement element) {
+		while (element.getNestingKind() == NestingKind.MEMBER) {
+			if (element.getModifiers().contains(Modifier.PRIVATE) || !element.getModifiers().contains(Modifier.STATIC)) {
+				return false;
+			}
+			element = (TypeElement) element.getEnclosingElement();
+		}
+		return element.getNestingKind() == NestingKind.TOP_LEVEL;
+	}
+	
+	private void generate(TypeElement type) throws IOException {
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+		String packageName = packageElement.isUnnamed() ? null : packageElement.getQualifiedName().toString();
+		String simpleName = (packageName == null ? binaryName : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+		String sourceType = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+		
+		List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+		Set<String> signatures = new TreeSet<String>();
+		for (Element member : processingEnv.getElementUtils().getAllMembers(type)) {
+			if (member.getKind() == ElementKind.METHOD && member.getModifiers().contains(Modifier.PUBLIC) && !member.getModifiers().contains(Modifier.STATIC)
+					&& !member.getEnclosingElement().toString().equals(Object.class.getName())) {
+				// overridden methods can show up more than once
+				if (signatures.add(getSignature((ExecutableElement) member))) {
+					methods.add((ExecutableElement) member);
+				}
+			}
+		}
+		
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(packageName == null ? simpleName : packageName + "." + simpleName, type);
+		Writer writer = file.openWriter();
+		try {
+			if (packageName != null) {
+				writer.write("package " + packageName + ";\n\n");
+			}
+			writer.write("/**\n * Generated by " + getClass().getName() + " for " + binaryName + ", do not edit\n */\n");
+			// parameters are cast to their erasure, generic parameters result in unchecked casts
+			writer.write("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+			writer.write("public final class " + simpleName + " extends be.nabu.libs.services.pojo.GeneratedInvokers {\n");
+			writer.write("\t@Override\n");
+			writer.write("\tpublic be.nabu.libs.services.pojo.MethodInvoker getInvoker(String signature) {\n");
+			writer.write("\t\tswitch (signature) {\n");
+			for (ExecutableElement method : methods) {
+				writer.write("\t\t\tcase \"" + getSignature(method) + "\":\n");
+				writer.write("\t\t\t\treturn new be.nabu.libs.services.pojo.MethodInvoker() {\n");
+				writer.write("\t\t\t\t\t@Override\n");
+				writer.write("\t\t\t\t\tpublic Object invoke(Object instance, Object[] arguments) throws java.lang.reflect.InvocationTargetException {\n");
+				writer.write("\t\t\t\t\t\ttry {\n");
+				StringBuilder call = new StringBuilder("((" + sourceType + ") instance)." + method.getSimpleName() + "(");
+				List<? extends VariableElement> parameters = method.getParameters();
+				for (int i = 0; i < parameters.size(); i++) {
+					if (i > 0) {
+						call.append(", ");
+					}
+					call.append("(").append(processingEnv.getTypeUtils().erasure(parameters.get(i).asType()).toString()).append(") arguments[").append(i).append("]");
+				}
+				call.append(")");
+				if (method.getReturnType().getKind() == TypeKind.VOID) {
+					writer.write("\t\t\t\t\t\t\t" + call + ";\n");
+					writer.write("\t\t\t\t\t\t\treturn null;\n");
+				}
+				else {
+					writer.write("\t\t\t\t\t\t\treturn " + call + ";\n");
+				}
+				writer.write("\t\t\t\t\t\t}\n");
+				// same contract as reflection: anything thrown by the method is wrapped
+				writer.write("\t\t\t\t\t\tcatch (Throwable e) {\n");
+				writer.write("\t\t\t\t\t\t\tthrow new java.lang.reflect.InvocationTargetException(e);\n");
+				writer.write("\t\t\t\t\t\t}\n");
+				writer.write("\t\t\t\t\t}\n");
+				writer.write("\t\t\t\t};\n");
+			}
+			writer.write("\t\t\tdefault:\n");
+			writer.write("\t\t\t\treturn null;\n");
+			writer.write("\t\t}\n");
+			writer.write("\t}\n");
+			writer.write("}\n");
+		}
+		finally {
+			writer.close();
+		}
+		generated.add(binaryName + SUFFIX);
+	}
+	
+	/**
+	 * This must match GeneratedInvokers.getSignature(), which uses Class.getTypeName() for the parameters
+	 */
+	private String getSignature(ExecutableElement method) {
+		StringBuilder builder = new StringBuilder(method.getSimpleName()).append('(');
+		List<? extends VariableElement> parameters = method.getParameters();
+		for (int i = 0; i < parameters.size(); i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(getTypeName(processingEnv.getTypeUtils().erasure(parameters.get(i).asType())));
+		}
+		return builder.append(')').toString();
+	}
+	
+	private String getTypeName(TypeMirror type) {
+		if (type.getKind() == TypeKind.ARRAY) {
+			return getTypeName(((ArrayType) type).getComponentType()) + "[]";
+		}
+		else if (type.getKind() == TypeKind.DECLARED) {
+			return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) type).asElement()).toString();
+		}
+		// primitives
+		return type.toString();
+	}
+	
+	/**
+	 * An incremental build only processes the changed classes, so the index of the previous build is merged rather than replaced
+	 */
+	private void writeIndex() {
+		if (generated.isEmpty()) {
+			return;
+		}
+		Set<String> index = new TreeSet<String>(generated);
+		readIndex(index);
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+			Writer writer = file.openWriter();
+			try {
+				for (String name : index) {
+					writer.write(name + "\n");
+				}
+			}
+			finally {
+				writer.close();
+			}
+		}
+		catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write the invoker index: " + e.getMessage());
+		}
+	}
+	
+	private void readIndex(Set<String> index) {
+		try {
+			FileObject file = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+			BufferedReader reader = new BufferedReader(file.openReader(true));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					// drop the entries of service classes that no longer exist
+					if (!line.isEmpty() && !line.startsWith("#") && line.endsWith(SUFFIX) && exists(line.substring(0, line.length() - SUFFIX.length()))) {
+						index.add(line);
+					}
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (IOException e) {
+			// there is no index yet
+		}
+	}
+	
+	private boolean exists(String binaryName) {
+		return processingEnv.getElementUtils().getTypeElement(binaryName.replace('$', '.')) != null;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.services.pojo.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import junit.framework.TestCase;
+import be.nabu.libs.services.pojo.GeneratedInvokers;
+import be.nabu.libs.services.pojo.MethodInvoker;
+
+public class TestPOJOServiceProcessor extends TestCase {
+	
+	public void testGeneratedInvokers() throws Exception {
+		File output = Files.createTempDirectory("pojo-processor").toFile();
+		compile(output, "sample.Greeter", "package sample;\n"
+			+ "@be.nabu.libs.services.pojo.POJOService\n"
+			+ "public class Greeter {\n"
+			+ "	public String greet(String name) { return \"hello \" + name; }\n"
+			+ "	public long sum(long[] values, int offset) { long sum = offset; for (long value : values) { sum += value; } return sum; }\n"
+			+ "	public void fail() { throw new IllegalStateException(); }\n"
+			+ "}\n");
+		assertEquals(Arrays.asList("sample.Greeter$POJOInvokers"), readIndex(output));
+		
+		URLClassLoader loader = new URLClassLoader(new URL[] { output.toURI().toURL() }, getClass().getClassLoader());
+		try {
+			Class<?> greeter = loader.loadClass("sample.Greeter");
+			Object instance = greeter.newInstance();
+			MethodInvoker greet = GeneratedInvokers.getInvoker(greeter, greeter.getMethod("greet", String.class));
+			assertNotNull(greet);
+			assertEquals("hello john", greet.invoke(instance, new Object[] { "john" }));
+			MethodInvoker sum = GeneratedInvokers.getInvoker(greeter, greeter.getMethod("sum", long[].class, int.class));
+			assertEquals(7l, sum.invoke(instance, new Object[] { new long[] { 2, 4 }, 1 }));
+			try {
+				GeneratedInvokers.getInvoker(greeter, greeter.getMethod("fail")).invoke(instance, new Object[0]);
+				fail("The exception should be wrapped like reflection does");
+			}
+			catch (InvocationTargetException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+		}
+		finally {
+			loader.close();
+		}
+	}
+	
+	/**
+	 * An incremental build only sees the changed classes, the entries of the previous build are kept unless their class is gone
+	 */
+	public void testIncrementalIndex() throws Exception {
+		File output = Files.createTempDirectory("pojo-processor").toFile();
+		compile(output, "sample.First", "package sample;\n@be.nabu.libs.services.pojo.POJOService\npublic class First {\n	public String first() { return \"first\"; }\n}\n");
+		File index = new File(output, POJOServiceProcessor.INDEX);
+		Files.write(index.toPath(), "sample.First$POJOInvokers\nsample.Removed$POJOInvokers\n".getBytes(Charset.forName("UTF-8")));
+		
+		compile(output, "sample.Second", "package sample;\n@be.nabu.libs.services.pojo.POJOService\npublic class Second {\n	public String second() { return \"second\"; }\n}\n");
+		assertEquals(Arrays.asList("sample.First$POJOInvokers", "sample.Second$POJOInvokers"), readIndex(output));
+	}
+	
+	private static List<String> readIndex(File output) throws IOException {
+		return Files.readAllLines(new File(output, POJOServiceProcessor.INDEX).toPath(), Charset.forName("UTF-8"));
+	}
+	
+	private static void compile(File output, String className, String source) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+		try {
+			// the output is on the classpath like it is during an incremental build
+			List<String> options = Arrays.asList("-d", output.getAbsolutePath(), "-classpath", System.getProperty("java.class.path") + File.pathSeparator + output.getAbsolutePath());
+			CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, Arrays.asList(new Source(className, source)));
+			task.setProcessors(Arrays.asList(new POJOServiceProcessor()));
+			assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+		}
+		finally {
+			fileManager.close();
+		}
+	}
+	
+	private static class Source extends SimpleJavaFileObject {
+		private String content;
+		
+		private Source(String className, String content) {
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.content = content;
+		}
+		
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return content;
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.StreamSupport;
+
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.types.CollectionHandlerFactory;
+import be.nabu.libs.types.api.CollectionHandlerProvider;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Converts an input value to the java parameter at a given position.
+ * Everything that only depends on the method signature is calculated once when the binding is created.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+class ArgumentBinding {
+	
+	private final Class<?> parameterType;
+	private final boolean isObject, isMap, isComplexContent;
+	private final CollectionHandlerProvider targetCollectionHandler;
+	private final Class<?> componentType;
+	/**
+	 * Whether complex content is exposed as a lazy view rather than converted to a bean, only possible for interfaces
+	 */
+	private final boolean lazy, lazyComponent;
+	/**
+	 * Iterable, Iterator and Stream parameters get a converting view over the source collection
+	 */
+	private final boolean streaming;
+	
+	/**
+	 * The collection handler for the last source class we saw, in most cases the same class is passed in every time
+	 */
+	private volatile SourceHandler lastSourceHandler;
+	
+	ArgumentBinding(Class<?> parameterType, Type genericParameterType) {
+		this(parameterType, genericParameterType, false);
+	}
+	
+	ArgumentBinding(Class<?> parameterType, Type genericParameterType, boolean lazy) {
+		this.parameterType = parameterType;
+		this.isObject = Object.class.equals(parameterType);
+		this.isMap = Map.class.isAssignableFrom(parameterType);
+		this.isComplexContent = isObject || ComplexContent.class.isAssignableFrom(parameterType);
+		this.streaming = Streaming.isStreaming(parameterType);
+		this.targetCollectionHandler = isObject || streaming ? null : CollectionHandlerFactory.getInstance().getHandler().getHandler(parameterType);
+		if (streaming) {
+			this.componentType = Streaming.getComponentType(genericParameterType);
+		}
+		else {
+			this.componentType = targetCollectionHandler == null ? null : targetCollectionHandler.getComponentType(genericParameterType);
+		}
+		this.lazy = lazy && BeanView.isViewable(parameterType);
+		this.lazyComponent = lazy && componentType != null && BeanView.isViewable(componentType);
+	}
+	
+	static ArgumentBinding[] compile(java.lang.reflect.Method method) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		Type[] genericParameterTypes = method.getGenericParameterTypes();
+		Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+		boolean lazy = method.isAnnotationPresent(LazyBean.class) || method.getDeclaringClass().isAnnotationPresent(LazyBean.class);
+		ArgumentBinding[] bindings = new ArgumentBinding[parameterTypes.length];
+		for (int i = 0; i < parameterTypes.length; i++) {
+			bindings[i] = new ArgumentBinding(parameterTypes[i], genericParameterTypes[i], lazy || isLazy(parameterAnnotations[i]));
+		}
+		return bindings;
+	}
+	
+	private static boolean isLazy(Annotation[] annotations) {
+		for (Annotation annotation : annotations) {
+			if (annotation instanceof LazyBean) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	Object bind(String name, Object value) throws ServiceException {
+		if (value == null) {
+			return null;
+		}
+		else if (streaming) {
+			return stream(value);
+		}
+		// the following check was deprecated (2016-01-25) because it fails to detect lists of unmatched types
+		// !parameterTypes[i].isAssignableFrom(value.getClass())
+		CollectionHandlerProvider sourceCollectionHandler = getSourceHandler(value.getClass());
+		// @18-11-2020: if we have a value that is a java.util.Map and the target is also a java.util.Map, we don't do a ... mapping :|
+		// otherwise we replace the original map with a new one and we don't see any changes done to it by reference (e.g. map.put in utils!)
+		if (sourceCollectionHandler != null && !isObject && (!(value instanceof Map) || !isMap)) {
+			if (targetCollectionHandler == null) {
+				throw new ServiceException("POJO-1", "The source object '" + name + "' is a collection but the target object '" + parameterType + "' is not");
+			}
+			Object event = POJOEvents.isBeanConversionEnabled() ? newEvent(name, componentType) : null;
+			Collection sourceIndexes = sourceCollectionHandler.getIndexes(value);
+			Object targetCollection = targetCollectionHandler.create(parameterType, sourceIndexes.size());
+			int converted = 0;
+			// views are cheap to create so there is nothing to gain from doing them in parallel
+			if (!lazyComponent && ParallelConversion.isParallel(sourceIndexes.size())) {
+				Object[] indexes = sourceIndexes.toArray();
+				Object[] items = new Object[indexes.length];
+				ForkJoinPool pool = ParallelConversion.getPool();
+				int chunkSize = Math.max(256, indexes.length / (pool.getParallelism() * 4));
+				converted = pool.invoke(new ConversionTask(sourceCollectionHandler, value, indexes, items, 0, indexes.length, chunkSize));
+				// the target collection is filled in by a single thread, in the original order
+				for (int i = 0; i < indexes.length; i++) {
+					targetCollectionHandler.set(targetCollection, indexes[i], items[i]);
+				}
+			}
+			else {
+				for (Object index : sourceIndexes) {
+					Object item = sourceCollectionHandler.get(value, index);
+					if (isConvertible(item)) {
+						item = lazyComponent ? BeanView.newView((ComplexContent) item, componentType) : BeanMapper.getAsBean((ComplexContent) item, componentType);
+						converted++;
+					}
+					targetCollectionHandler.set(targetCollection, index, item);
+				}
+			}
+			// only report collections where something was actually converted
+			if (event != null && converted > 0 && !lazyComponent) {
+				POJOEvents.setConvertedItems(event, converted);
+				POJOEvents.commit(event);
+			}
+			return targetCollection;
+		}
+		else if (value instanceof ComplexContent && !isComplexContent) {
+			if (lazy) {
+				return BeanView.newView((ComplexContent) value, parameterType);
+			}
+			Object event = POJOEvents.isBeanConversionEnabled() ? newEvent(name, parameterType) : null;
+			Object bean = BeanMapper.getAsBean((ComplexContent) value, parameterType);
+			if (event != null) {
+				POJOEvents.setConvertedItems(event, 1);
+				POJOEvents.commit(event);
+			}
+			return bean;
+		}
+		return value;
+	}
+	
+	/**
+	 * The items are converted one by one as they are consumed, nothing is copied up front
+	 */
+	Object stream(final Object value) {
+		final CollectionHandlerProvider sourceHandler = getSourceHandler(value.getClass());
+		Iterable<Object> iterable = new Iterable<Object>() {
+			@Override
+			public Iterator<Object> iterator() {
+				final Iterator<Object> items = Streaming.iterator(value, sourceHandler);
+				return new Iterator<Object>() {
+					@Override
+					public boolean hasNext() {
+						return items.hasNext();
+					}
+					@Override
+					public Object next() {
+						Object item = items.next();
+						if (isConvertible(item)) {
+							item = lazyComponent ? BeanView.newView((ComplexContent) item, componentType) : BeanMapper.getAsBean((ComplexContent) item, componentType);
+						}
+						return item;
+					}
+				};
+			}
+		};
+		if (Iterable.class.equals(parameterType)) {
+			return iterable;
+		}
+		else if (Iterator.class.equals(parameterType)) {
+			return iterable.iterator();
+		}
+		long size = Streaming.getSize(value);
+		Spliterator<Object> spliterator = size >= 0
+			? Spliterators.spliterator(iterable.iterator(), size, Spliterator.ORDERED)
+			: Spliterators.spliteratorUnknownSize(iterable.iterator(), Spliterator.ORDERED);
+		return StreamSupport.stream(spliterator, false);
+	}
+	
+	private boolean isConvertible(Object item) {
+		return item != null && !componentType.isAssignableFrom(item.getClass()) && item instanceof ComplexContent;
+	}
+	
+	private static Object newEvent(String name, Class<?> targetType) {
+		return POJOEvents.beginBeanConversion(name, targetType);
+	}
+	
+	private CollectionHandlerProvider getSourceHandler(Class<?> sourceClass) {
+		SourceHandler sourceHandler = lastSourceHandler;
+		if (sourceHandler == null || !sourceHandler.sourceClass.equals(sourceClass)) {
+			sourceHandler = new SourceHandler(sourceClass, CollectionHandlerFactory.getInstance().getHandler().getHandler(sourceClass));
+			lastSourceHandler = sourceHandler;
+		}
+		return sourceHandler.handler;
+	}
+	
+	/**
+	 * Converts a range of the collection, the converted items are stored at the same position in the result
+	 */
+	private class ConversionTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		
+		private final CollectionHandlerProvider sourceHandler;
+		private final Object source;
+		private final Object[] indexes, items;
+		private final int from, to, chunkSize;
+		
+		private ConversionTask(CollectionHandlerProvider sourceHandler, Object source, Object[] indexes, Object[] items, int from, int to, int chunkSize) {
+			this.sourceHandler = sourceHandler;
+			this.source = source;
+			this.indexes = indexes;
+			this.items = items;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (to - from > chunkSize) {
+				int middle = (from + to) >>> 1;
+				ConversionTask left = new ConversionTask(sourceHandler, source, indexes, items, from, middle, chunkSize);
+				left.fork();
+				int converted = new ConversionTask(sourceHandler, source, indexes, items, middle, to, chunkSize).compute();
+				return converted + left.join();
+			}
+			int converted = 0;
+			for (int i = from; i < to; i++) {
+				Object item = sourceHandler.get(source, indexes[i]);
+				if (isConvertible(item)) {
+					item = BeanMapper.getAsBean((ComplexContent) item, componentType);
+					converted++;
+				}
+				items[i] = item;
+			}
+			return converted;
+		}
+	}
+	
+	private static final class SourceHandler {
+		private final Class<?> sourceClass;
+		private final CollectionHandlerProvider handler;
+		
+		private SourceHandler(Class<?> sourceClass, CollectionHandlerProvider handler) {
+			this.sourceClass = sourceClass;
+			this.handler = handler;
+		}
+	}
+}
@@ -0,0 +1,373 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.authentication.api.Token;
+import be.nabu.libs.services.ServiceRuntime;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Collects calls to the same service by the same principal and executes them together once the window is full or the linger time has passed.
+ * Only method services with a batch method (see @BatchedBy) are collected, a window of calls is executed with a single call to that method.
+ * All other calls are executed right away and concurrently on the executor, as are method services that cache results, coalesce calls or have a concurrency limit so those features keep working.
+ * Service runnable observers are not supported, they are ignored.
+ */
+public class BatchingServiceRunner implements ServiceRunner {
+
+	private static Logger logger = LoggerFactory.getLogger(BatchingServiceRunner.class);
+
+	private final int maxBatchSize;
+	private final long linger;
+	private final Executor executor;
+	private final ScheduledExecutorService scheduler;
+	// windows only exist while they have pending calls
+	private final ConcurrentMap<Object, Window> windows = new ConcurrentHashMap<Object, Window>();
+	private final AtomicBoolean observersIgnored = new AtomicBoolean();
+	private final LongAdder batchCount = new LongAdder(), callCount = new LongAdder(), fullBatchCount = new LongAdder();
+	
+	public BatchingServiceRunner(int maxBatchSize, long linger, TimeUnit unit) {
+		this(maxBatchSize, linger, unit, Executors.newCachedThreadPool(newThreadFactory("pojo-batch-")));
+	}
+	
+	/**
+	 * The batches are executed on the given executor, the linger time is tracked by a single daemon thread
+	 */
+	public BatchingServiceRunner(int maxBatchSize, long linger, TimeUnit unit, Executor executor) {
+		if (maxBatchSize <= 0) {
+			throw new IllegalArgumentException("The maximum batch size must be positive");
+		}
+		this.maxBatchSize = maxBatchSize;
+		this.linger = unit.toNanos(linger);
+		this.executor = executor;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(newThreadFactory("pojo-batch-linger-"));
+	}
+	
+	private static ThreadFactory newThreadFactory(final String prefix) {
+		return new ThreadFactory() {
+			private AtomicInteger counter = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+	
+	@Override
+	public Future<ServiceResult> run(Service service, ExecutionContext executionContext, ComplexContent input, ServiceRunnableObserver...observers) {
+		if (observers != null && observers.length > 0 && observersIgnored.compareAndSet(false, true)) {
+			logger.warn("Service runnable observers are not supported by this runner, they are ignored");
+		}
+		Call call = new Call(executionContext, input);
+		if (!isBatchable(service)) {
+			submit(service, call);
+			return call.future;
+		}
+		Object key = getKey(service, executionContext);
+		while (true) {
+			Window window = windows.get(key);
+			if (window == null) {
+				Window created = new Window(key, service);
+				Window existing = windows.putIfAbsent(key, created);
+				window = existing == null ? created : existing;
+			}
+			List<Call> full = null;
+			boolean first = false;
+			synchronized(window) {
+				// the window was flushed after we looked it up, a new one takes its place
+				if (window.flushed) {
+					continue;
+				}
+				window.calls.add(call);
+				if (window.calls.size() >= maxBatchSize) {
+					full = take(window);
+				}
+				// the first call of a new window starts the linger time
+				else {
+					first = window.calls.size() == 1;
+				}
+			}
+			if (full != null) {
+				fullBatchCount.increment();
+				submit(service, full);
+			}
+			else if (first) {
+				schedule(window);
+			}
+			return call.future;
+		}
+	}
+	
+	/**
+	 * Calls with different contexts can share a batch, but only if they run for the same principal
+	 */
+	private static Object getKey(Service service, ExecutionContext executionContext) {
+		Token token = executionContext == null || executionContext.getSecurityContext() == null ? null : executionContext.getSecurityContext().getToken();
+		return token == null ? Arrays.asList(service) : Arrays.asList(service, token.getRealm(), token.getName());
+	}
+	
+	/**
+	 * Must be called while holding the lock on the window, a flushed window no longer accepts calls
+	 */
+	private List<Call> take(Window window) {
+		window.flushed = true;
+		windows.remove(window.key, window);
+		return window.calls;
+	}
+	
+	private void schedule(final Window window) {
+		try {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					List<Call> calls;
+					synchronized(window) {
+						// the window may already have been flushed because it was full
+						calls = window.flushed ? null : take(window);
+					}
+					if (calls != null) {
+						submit(window.service, calls);
+					}
+				}
+			}, linger, TimeUnit.NANOSECONDS);
+		}
+		catch (RejectedExecutionException e) {
+			List<Call> calls;
+			synchronized(window) {
+				calls = window.flushed ? null : take(window);
+			}
+			if (calls != null) {
+				fail(calls, new ServiceException("POJO-5", "The runner has been shut down", e));
+			}
+		}
+	}
+	
+	private void submit(final Service service, final List<Call> calls) {
+		batchCount.increment();
+		callCount.add(calls.size());
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					execute(service, calls);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			fail(calls, new ServiceException("POJO-5", "The runner has been shut down", e));
+		}
+	}
+	
+	/**
+	 * Calls that can not be batched run on their own
+	 */
+	private void submit(final Service service, final Call call) {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					call.future.complete(execute(service, call.executionContext, call.input));
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			call.future.complete(new RunnerResult(null, new ServiceException("POJO-5", "The runner has been shut down", e)));
+		}
+	}
+	
+	private void execute(Service service, List<Call> calls) {
+		try {
+			if (calls.size() == 1) {
+				calls.get(0).future.complete(execute(service, calls.get(0).executionContext, calls.get(0).input));
+			}
+			else {
+				executeBatch((MethodService) service, calls);
+			}
+		}
+		finally {
+			// make sure no one keeps waiting if something unexpected happened
+			fail(calls, new ServiceException("POJO-3", "The batched call to " + service + " did not complete"));
+		}
+	}
+	
+	/**
+	 * All the calls share a principal so the batch method runs in the context of the first call
+	 */
+	private void executeBatch(MethodService service, List<Call> calls) {
+		List<ComplexContent> inputs = new ArrayList<ComplexContent>();
+		for (Call call : calls) {
+			inputs.add(call.input);
+		}
+		try {
+			List<ComplexContent> outputs = service.newInstance().executeBatchMethod(calls.get(0).executionContext, inputs);
+			for (int i = 0; i < calls.size(); i++) {
+				calls.get(i).future.complete(new RunnerResult(outputs.get(i), null));
+			}
+		}
+		catch (ServiceException e) {
+			fail(calls, e);
+		}
+		catch (Throwable e) {
+			fail(calls, new ServiceException("JAVA-0", "Service " + service + " threw exception", e));
+		}
+	}
+	
+	private static ServiceResult execute(Service service, ExecutionContext executionContext, ComplexContent input) {
+		try {
+			return new RunnerResult(new ServiceRuntime(service, executionContext).run(input), null);
+		}
+		catch (ServiceException e) {
+			return new RunnerResult(null, e);
+		}
+		// errors are reported as well, otherwise the caller would wait forever
+		catch (Throwable e) {
+			return new RunnerResult(null, new ServiceException("JAVA-0", "Service " + service + " threw exception", e));
+		}
+	}
+	
+	private static boolean isBatchable(Service service) {
+		if (service instanceof MethodService) {
+			MethodService methodService = (MethodService) service;
+			return methodService.getBatchMethod() != null && methodService.getResultCache() == null && methodService.getInFlightCalls() == null && methodService.getBulkhead() == null;
+		}
+		return false;
+	}
+	
+	private static void fail(List<Call> calls, ServiceException exception) {
+		for (Call call : calls) {
+			if (!call.future.isDone()) {
+				call.future.complete(new RunnerResult(null, exception));
+			}
+		}
+	}
+	
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+	
+	/**
+	 * The linger time in milliseconds
+	 */
+	public long getLinger() {
+		return TimeUnit.NANOSECONDS.toMillis(linger);
+	}
+	
+	public long getBatchCount() {
+		return batchCount.sum();
+	}
+	
+	/**
+	 * The amount of calls that were collected in a window, calls that can not be batched are not counted
+	 */
+	public long getCallCount() {
+		return callCount.sum();
+	}
+	
+	/**
+	 * The amount of batches that were submitted because they were full rather than because the linger time passed
+	 */
+	public long getFullBatchCount() {
+		return fullBatchCount.sum();
+	}
+	
+	/**
+	 * The average amount of calls per batch relative to the maximum batch size, a low ratio means most batches are flushed by the linger time
+	 */
+	public double getFillRatio() {
+		long batches = batchCount.sum();
+		return batches == 0 ? 0 : (double) callCount.sum() / (batches * maxBatchSize);
+	}
+	
+	/**
+	 * The amount of windows that are waiting for more calls
+	 */
+	public int getOpenWindows() {
+		return windows.size();
+	}
+	
+	/**
+	 * Calls that are waiting in a window are executed, new calls fail with POJO-5
+	 */
+	public void shutdown() {
+		scheduler.shutdown();
+		for (Window window : windows.values()) {
+			List<Call> calls;
+			synchronized(window) {
+				calls = window.flushed ? null : take(window);
+			}
+			if (calls != null) {
+				submit(window.service, calls);
+			}
+		}
+		if (executor instanceof ExecutorService) {
+			((ExecutorService) executor).shutdown();
+		}
+	}
+	
+	private static final class Window {
+		private final Object key;
+		private final Service service;
+		private final List<Call> calls = new ArrayList<Call>();
+		private boolean flushed;
+		
+		private Window(Object key, Service service) {
+			this.key = key;
+			this.service = service;
+		}
+	}
+	
+	private static final class Call {
+		private final ExecutionContext executionContext;
+		private final ComplexContent input;
+		private final CompletableFuture<ServiceResult> future = new CompletableFuture<ServiceResult>();
+		
+		private Call(ExecutionContext executionContext, ComplexContent input) {
+			this.executionContext = executionContext;
+			this.input = input;
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import be.nabu.libs.services.ServiceRuntime;
+import be.nabu.libs.services.api.ExecutionContext;
+
+/**
+ * Manages the instances of a pojo service class according to its scope.
+ * The scope is taken from the @POJOScope annotation unless it is configured explicitly.
+ */
+abstract public class BeanLifecycle {
+	
+	private static ClassValue<AtomicReference<BeanLifecycle>> lifecycles = new ClassValue<AtomicReference<BeanLifecycle>>() {
+		@Override
+		protected AtomicReference<BeanLifecycle> computeValue(Class<?> type) {
+			return new AtomicReference<BeanLifecycle>();
+		}
+	};
+	
+	/**
+	 * The context of the call that is currently running on this thread, shared beans get a proxy that delegates to it
+	 */
+	private static ThreadLocal<ExecutionContext> currentContext = new ThreadLocal<ExecutionContext>();
+	
+	public static BeanLifecycle getLifecycle(Class<?> clazz) {
+		AtomicReference<BeanLifecycle> reference = lifecycles.get(clazz);
+		BeanLifecycle lifecycle = reference.get();
+		if (lifecycle == null) {
+			POJOScope annotation = clazz.getAnnotation(POJOScope.class);
+			lifecycle = newLifecycle(annotation == null ? BeanScope.PER_CALL : annotation.value(), annotation == null ? 0 : annotation.poolSize());
+			if (!reference.compareAndSet(null, lifecycle)) {
+				lifecycle = reference.get();
+			}
+		}
+		return lifecycle;
+	}
+	
+	/**
+	 * Overrides the scope of the class, any shared instances of the previous lifecycle are discarded
+	 */
+	public static void configure(Class<?> clazz, BeanScope scope, int poolSize) {
+		lifecycles.get(clazz).set(newLifecycle(scope, poolSize));
+	}
+	
+	/**
+	 * Only applies the scope, use POJOConfiguration.apply() to apply the concurrency limit as well
+	 */
+	public static void configure(Class<?> clazz, POJOConfiguration configuration) {
+		if (configuration.getScope() != null) {
+			configure(clazz, configuration.getScope(), configuration.getPoolSize() == null ? 16 : configuration.getPoolSize());
+		}
+	}
+	
+	private static BeanLifecycle newLifecycle(BeanScope scope, int poolSize) {
+		switch(scope) {
+			case SINGLETON: return new SingletonLifecycle();
+			case THREAD_LOCAL: return new ThreadLocalLifecycle();
+			case POOLED: return new PooledLifecycle(poolSize);
+			default: return new PerCallLifecycle();
+		}
+	}
+	
+	private BeanScope scope;
+	
+	BeanLifecycle(BeanScope scope) {
+		this.scope = scope;
+	}
+	
+	public BeanScope getScope() {
+		return scope;
+	}
+	
+	/**
+	 * Returns an instance that is ready to be invoked for the given context
+	 */
+	abstract Object acquire(MethodService service, ExecutionContext context) throws Exception;
+	
+	/**
+	 * Must be called once the invocation is done, regardless of its outcome
+	 */
+	abstract void release(Object instance);
+	
+	/**
+	 * Whether released instances are handed out again, such an instance should not be held longer than a single call
+	 */
+	boolean isRecycled() {
+		return false;
+	}
+	
+	/**
+	 * Shared instances can not have the context injected per call, instead the context is set on the current thread for the duration of the call
+	 */
+	boolean isShared() {
+		return false;
+	}
+	
+	static ExecutionContext enter(ExecutionContext context) {
+		ExecutionContext previous = currentContext.get();
+		currentContext.set(context);
+		return previous;
+	}
+	
+	static void exit(ExecutionContext previous) {
+		if (previous == null) {
+			currentContext.remove();
+		}
+		else {
+			currentContext.set(previous);
+		}
+	}
+	
+	static Object newInstance(MethodService service, ExecutionContext context) throws Exception {
+		Object instance = service.getSourceClass().newInstance();
+		inject(service, instance, context);
+		return instance;
+	}
+	
+	static void inject(MethodService service, Object instance, ExecutionContext context) throws IllegalAccessException {
+		if (service.getInjectContext() != null) {
+			service.getInjectContext().set(instance, context);
+		}
+		if (service.getInjectRuntime() != null) {
+			service.getInjectRuntime().set(instance, ServiceRuntime.getRuntime());
+		}
+	}
+	
+	private static class PerCallLifecycle extends BeanLifecycle {
+		PerCallLifecycle() {
+			super(BeanScope.PER_CALL);
+		}
+		@Override
+		Object acquire(MethodService service, ExecutionContext context) throws Exception {
+			return newInstance(service, context);
+		}
+		@Override
+		void release(Object instance) {
+			// do nothing
+		}
+	}
+	
+	private static class SingletonLifecycle extends BeanLifecycle {
+		private volatile Object instance;
+		
+		SingletonLifecycle() {
+			super(BeanScope.SINGLETON);
+		}
+		
+		@Override
+		Object acquire(MethodService service, ExecutionContext context) throws Exception {
+			if (instance == null) {
+				synchronized(this) {
+					if (instance == null) {
+						// the runtime is a class so we can not proxy it, the bean should use ServiceRuntime.getRuntime() instead
+						if (service.getInjectRuntime() != null) {
+							throw new IllegalStateException("The singleton " + service.getSourceClass().getName() + " can not have the service runtime injected, use ServiceRuntime.getRuntime() instead");
+						}
+						Object instance = service.getSourceClass().newInstance();
+						if (service.getInjectContext() != null) {
+							service.getInjectContext().set(instance, Proxy.newProxyInstance(ExecutionContext.class.getClassLoader(), new Class[] { ExecutionContext.class }, new CurrentContextHandler()));
+						}
+						this.instance = instance;
+					}
+				}
+			}
+			return instance;
+		}
+		
+		@Override
+		void release(Object instance) {
+			// do nothing
+		}
+		
+		@Override
+		boolean isShared() {
+			return true;
+		}
+	}
+	
+	private static class ThreadLocalLifecycle extends BeanLifecycle {
+		private ThreadLocal<ThreadLocalInstance> instances = new ThreadLocal<ThreadLocalInstance>();
+		
+		ThreadLocalLifecycle() {
+			super(BeanScope.THREAD_LOCAL);
+		}
+		
+		@Override
+		Object acquire(MethodService service, ExecutionContext context) throws Exception {
+			ThreadLocalInstance threadLocalInstance = instances.get();
+			if (threadLocalInstance == null) {
+				threadLocalInstance = new ThreadLocalInstance(service.getSourceClass().newInstance());
+				instances.set(threadLocalInstance);
+			}
+			// a reentrant call on the same thread would overwrite the injected fields of the running call, give it its own instance
+			else if (threadLocalInstance.inUse) {
+				return newInstance(service, context);
+			}
+			threadLocalInstance.inUse = true;
+			inject(service, threadLocalInstance.instance, context);
+			return threadLocalInstance.instance;
+		}
+		
+		@Override
+		void release(Object instance) {
+			ThreadLocalInstance threadLocalInstance = instances.get();
+			if (threadLocalInstance != null && threadLocalInstance.instance == instance) {
+				threadLocalInstance.inUse = false;
+			}
+		}
+		
+		@Override
+		boolean isRecycled() {
+			return true;
+		}
+	}
+	
+	private static class ThreadLocalInstance {
+		private Object instance;
+		private boolean inUse;
+		
+		ThreadLocalInstance(Object instance) {
+			this.instance = instance;
+		}
+	}
+	
+	private static class PooledLifecycle extends BeanLifecycle {
+		private BlockingQueue<Object> pool;
+		
+		PooledLifecycle(int poolSize) {
+			super(BeanScope.POOLED);
+			this.pool = new ArrayBlockingQueue<Object>(Math.max(1, poolSize));
+		}
+		
+		@Override
+		Object acquire(MethodService service, ExecutionContext context) throws Exception {
+			Object instance = pool.poll();
+			if (instance == null) {
+				return newInstance(service, context);
+			}
+			inject(service, instance, context);
+			return instance;
+		}
+		
+		@Override
+		void release(Object instance) {
+			// if the pool is full, the instance is simply discarded
+			pool.offer(instance);
+		}
+		
+		@Override
+		boolean isRecycled() {
+			return true;
+		}
+	}
+	
+	private static class CurrentContextHandler implements InvocationHandler {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass().equals(Object.class)) {
+				if (method.getName().equals("equals")) {
+					return proxy == args[0];
+				}
+				else if (method.getName().equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				}
+				else if (method.getName().equals("toString")) {
+					return "CurrentExecutionContext[" + currentContext.get() + "]";
+				}
+			}
+			ExecutionContext context = currentContext.get();
+			if (context == null) {
+				throw new IllegalStateException("The execution context can only be used during a service call");
+			}
+			try {
+				return method.invoke(context, args);
+			}
+			catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
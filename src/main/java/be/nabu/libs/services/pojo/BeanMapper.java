@@ -0,0 +1,337 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
+import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.converter.ConverterFactory;
+import be.nabu.libs.types.CollectionHandlerFactory;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.CollectionHandlerProvider;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.java.BeanInstance;
+import be.nabu.libs.types.java.BeanResolver;
+
+/**
+ * Converts between complex content and a java bean class using method handles for the constructor and the properties.
+ * A mapper is compiled once per bean class, classes that can not be compiled (e.g. without a public no-arg constructor) fall back to TypeUtils.
+ * The properties are those of the bean type so renamed (@XmlElement) and excluded (@XmlTransient) properties are handled the same way,
+ * if an element of the bean type can not be matched to a property or it uses an adapter, the class also falls back to TypeUtils.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public final class BeanMapper<T> {
+	
+	private static Logger logger = LoggerFactory.getLogger(BeanMapper.class);
+	
+	private static final String DEFAULT_NAME = "##default";
+	
+	private static ClassValue<BeanMapper<?>> mappers = new ClassValue<BeanMapper<?>>() {
+		@Override
+		protected BeanMapper<?> computeValue(Class<?> type) {
+			if (!isMappable(type)) {
+				return null;
+			}
+			try {
+				return new BeanMapper(type);
+			}
+			catch (IllegalAccessException | NoSuchMethodException | IntrospectionException | RuntimeException e) {
+				logger.debug("Can not compile a bean mapper for {}, falling back to reflection", type, e);
+				return null;
+			}
+		}
+	};
+	
+	private final Class<T> type;
+	private final MethodHandle constructor;
+	private final Property [] properties;
+	/**
+	 * The properties that exist in the last complex type we saw, in most cases the same type is passed in every time
+	 */
+	private volatile TypeProperties lastTypeProperties;
+	
+	private BeanMapper(Class<T> type) throws IllegalAccessException, NoSuchMethodException, IntrospectionException {
+		this.type = type;
+		this.constructor = MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+		BeanInfo beanInfo = Introspector.getBeanInfo(type, Object.class);
+		Map<String, PropertyDescriptor> descriptors = new HashMap<String, PropertyDescriptor>();
+		for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+			// indexed properties have no property type
+			if (descriptor.getPropertyType() != null && (descriptor.getWriteMethod() != null || descriptor.getReadMethod() != null)) {
+				descriptors.put(getElementName(type, descriptor), descriptor);
+			}
+		}
+		// the accessors follow the elements of the bean type so we use the same names (and exclusions) as the types library
+		List<Property> properties = new ArrayList<Property>();
+		for (Element<?> element : TypeUtils.getAllChildren((ComplexType) BeanResolver.getInstance().resolve(type))) {
+			PropertyDescriptor descriptor = descriptors.get(element.getName());
+			if (descriptor == null) {
+				throw new IllegalArgumentException("The element '" + element.getName() + "' does not match a bean property");
+			}
+			else if (isAdapted(type, descriptor)) {
+				throw new IllegalArgumentException("The element '" + element.getName() + "' uses an adapter");
+			}
+			properties.add(new Property(element.getName(), descriptor));
+		}
+		this.properties = properties.toArray(new Property[properties.size()]);
+	}
+	
+	/**
+	 * The name of the property can be overridden with @XmlElement or @XmlAttribute on the getter, the setter or the field
+	 */
+	static String getElementName(Class<?> type, PropertyDescriptor descriptor) {
+		for (AnnotatedElement annotated : getAnnotated(type, descriptor)) {
+			XmlElement element = annotated.getAnnotation(XmlElement.class);
+			if (element != null && !DEFAULT_NAME.equals(element.name())) {
+				return element.name();
+			}
+			XmlAttribute attribute = annotated.getAnnotation(XmlAttribute.class);
+			if (attribute != null && !DEFAULT_NAME.equals(attribute.name())) {
+				return attribute.name();
+			}
+		}
+		return descriptor.getName();
+	}
+	
+	/**
+	 * Whether the property is excluded from the type with @XmlTransient on the getter, the setter or the field
+	 */
+	static boolean isTransient(Class<?> type, PropertyDescriptor descriptor) {
+		for (AnnotatedElement annotated : getAnnotated(type, descriptor)) {
+			if (annotated.isAnnotationPresent(XmlTransient.class)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean isAdapted(Class<?> type, PropertyDescriptor descriptor) {
+		if (descriptor.getPropertyType().isAnnotationPresent(XmlJavaTypeAdapter.class)) {
+			return true;
+		}
+		for (AnnotatedElement annotated : getAnnotated(type, descriptor)) {
+			if (annotated.isAnnotationPresent(XmlJavaTypeAdapter.class)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static List<AnnotatedElement> getAnnotated(Class<?> type, PropertyDescriptor descriptor) {
+		List<AnnotatedElement> annotated = new ArrayList<AnnotatedElement>();
+		if (descriptor.getReadMethod() != null) {
+			annotated.add(descriptor.getReadMethod());
+		}
+		if (descriptor.getWriteMethod() != null) {
+			annotated.add(descriptor.getWriteMethod());
+		}
+		for (Class<?> current = type; current != null && !Object.class.equals(current); current = current.getSuperclass()) {
+			try {
+				annotated.add(current.getDeclaredField(descriptor.getName()));
+				break;
+			}
+			catch (NoSuchFieldException e) {
+				// check the parent
+			}
+		}
+		return annotated;
+	}
+	
+	/**
+	 * Returns the compiled mapper for the class or null if it can not be compiled
+	 */
+	public static <T> BeanMapper<T> getMapper(Class<T> type) {
+		return (BeanMapper<T>) mappers.get(type);
+	}
+	
+	/**
+	 * Converts the content using a compiled mapper if possible, otherwise using TypeUtils
+	 */
+	public static <T> T getAsBean(ComplexContent content, Class<T> type) {
+		BeanMapper<T> mapper = getMapper(type);
+		return mapper == null ? TypeUtils.getAsBean(content, type) : mapper.toBean(content);
+	}
+	
+	private static boolean isMappable(Class<?> type) {
+		return Modifier.isPublic(type.getModifiers()) && !Modifier.isAbstract(type.getModifiers()) && !type.isInterface() && !type.isArray()
+			&& !type.isPrimitive() && !type.isEnum() && !type.getName().startsWith("java.") && !ComplexContent.class.isAssignableFrom(type);
+	}
+	
+	public Class<T> getType() {
+		return type;
+	}
+	
+	public T toBean(ComplexContent content) {
+		if (content == null) {
+			return null;
+		}
+		// a wrapped bean does not need to be copied
+		if (content instanceof BeanInstance && type.isInstance(((BeanInstance) content).getUnwrapped())) {
+			return (T) ((BeanInstance) content).getUnwrapped();
+		}
+		try {
+			Object instance = constructor.invokeExact();
+			T bean = (T) instance;
+			for (Property property : getProperties(content.getType())) {
+				if (property.setter != null) {
+					Object value = content.get(property.name);
+					if (value != null) {
+						property.setter.invokeExact((Object) bean, property.convert(value));
+					}
+				}
+			}
+			return bean;
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new IllegalArgumentException("Could not convert to " + type.getName(), e);
+		}
+	}
+	
+	/**
+	 * Copies the properties of the bean into a new instance of the given type, only properties that exist in the type are copied
+	 */
+	public ComplexContent toContent(T bean, ComplexType target) {
+		if (bean == null) {
+			return null;
+		}
+		ComplexContent content = target.newInstance();
+		try {
+			for (Property property : getProperties(target)) {
+				if (property.getter != null) {
+					Object value = (Object) property.getter.invokeExact((Object) bean);
+					if (value != null) {
+						content.set(property.name, value);
+					}
+				}
+			}
+			return content;
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new IllegalArgumentException("Could not convert from " + type.getName(), e);
+		}
+	}
+	
+	private Property [] getProperties(ComplexType complexType) {
+		TypeProperties typeProperties = lastTypeProperties;
+		if (typeProperties == null || typeProperties.type != complexType) {
+			List<Property> present = new ArrayList<Property>();
+			for (Property property : properties) {
+				if (complexType.get(property.name) != null) {
+					present.add(property);
+				}
+			}
+			typeProperties = new TypeProperties(complexType, present.toArray(new Property[present.size()]));
+			lastTypeProperties = typeProperties;
+		}
+		return typeProperties.properties;
+	}
+	
+	private static final class TypeProperties {
+		private final ComplexType type;
+		private final Property [] properties;
+		
+		private TypeProperties(ComplexType type, Property [] properties) {
+			this.type = type;
+			this.properties = properties;
+		}
+	}
+	
+	private static final class Property {
+		private final String name;
+		private final Class<?> type;
+		/**
+		 * (Object, Object)void and (Object)Object, null if the property can not be written or read
+		 */
+		private final MethodHandle setter, getter;
+		private final CollectionHandlerProvider collectionHandler;
+		private final Class<?> componentType;
+		
+		private Property(String name, PropertyDescriptor descriptor) throws IllegalAccessException {
+			this.name = name;
+			this.type = descriptor.getPropertyType();
+			this.setter = descriptor.getWriteMethod() == null ? null : MethodHandles.publicLookup().unreflect(descriptor.getWriteMethod())
+				.asType(MethodType.methodType(void.class, Object.class, Object.class));
+			this.getter = descriptor.getReadMethod() == null ? null : MethodHandles.publicLookup().unreflect(descriptor.getReadMethod())
+				.asType(MethodType.methodType(Object.class, Object.class));
+			this.collectionHandler = Map.class.isAssignableFrom(type) ? null : TypeDefinitionCache.getCollectionHandler(type);
+			if (collectionHandler == null) {
+				this.componentType = null;
+			}
+			else {
+				Class<?> componentType = collectionHandler.getComponentType(descriptor.getWriteMethod() != null 
+					? descriptor.getWriteMethod().getGenericParameterTypes()[0] 
+					: descriptor.getReadMethod().getGenericReturnType());
+				this.componentType = componentType == null ? Object.class : componentType;
+			}
+		}
+		
+		private Object convert(Object value) {
+			if (collectionHandler != null) {
+				CollectionHandlerProvider sourceHandler = CollectionHandlerFactory.getInstance().getHandler().getHandler(value.getClass());
+				if (sourceHandler != null) {
+					Collection indexes = sourceHandler.getIndexes(value);
+					Object collection = collectionHandler.create(type, indexes.size());
+					for (Object index : indexes) {
+						collectionHandler.set(collection, index, convert(sourceHandler.get(value, index), componentType));
+					}
+					return collection;
+				}
+			}
+			return convert(value, type);
+		}
+		
+		private static Object convert(Object value, Class<?> target) {
+			if (value == null || TypeUtils.box(target).isInstance(value)) {
+				return value;
+			}
+			else if (value instanceof ComplexContent) {
+				return getAsBean((ComplexContent) value, target);
+			}
+			return ConverterFactory.getInstance().getConverter().convert(value, TypeUtils.box(target));
+		}
+	}
+}
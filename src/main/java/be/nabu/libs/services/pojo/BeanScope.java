@@ -0,0 +1,41 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+/**
+ * Determines how long an instance of a pojo service class lives
+ */
+public enum BeanScope {
+	/**
+	 * A new instance is created for every call
+	 */
+	PER_CALL,
+	/**
+	 * One instance is shared by all threads, the execution context is injected as a proxy that delegates to the context of the current call
+	 */
+	SINGLETON,
+	/**
+	 * Each thread reuses its own instance
+	 */
+	THREAD_LOCAL,
+	/**
+	 * Instances are borrowed from a bounded pool, when the pool is empty a new instance is created
+	 */
+	POOLED
+}
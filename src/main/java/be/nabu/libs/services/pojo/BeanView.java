@@ -0,0 +1,227 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.beans.IntrospectionException;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import be.nabu.libs.converter.ConverterFactory;
+import be.nabu.libs.types.CollectionHandlerFactory;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.CollectionHandlerProvider;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Implements a java interface on top of complex content, the properties are converted when they are first accessed.
+ * Nested complex content is exposed as a view as well if the property type is an interface.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+class BeanView implements InvocationHandler {
+	
+	// a concurrent map can not contain null values
+	private static final Object NULL = new Object();
+	
+	/**
+	 * The element name per accessor of each interface, transient properties are mapped to null
+	 */
+	private static ClassValue<Map<Method, String>> elementNames = new ClassValue<Map<Method, String>>() {
+		@Override
+		protected Map<Method, String> computeValue(Class<?> type) {
+			return getElementNames(type);
+		}
+	};
+	
+	private final ComplexContent content;
+	private final Class<?> iface;
+	private final Map<String, Object> converted = new ConcurrentHashMap<String, Object>();
+	
+	private BeanView(ComplexContent content, Class<?> iface) {
+		this.content = content;
+		this.iface = iface;
+	}
+	
+	/**
+	 * Only interfaces that are not part of the jdk can be views, collections for example should be converted
+	 */
+	static boolean isViewable(Class<?> clazz) {
+		return clazz.isInterface() && !clazz.getName().startsWith("java.") && !ComplexContent.class.isAssignableFrom(clazz);
+	}
+	
+	static <T> T newView(ComplexContent content, Class<T> iface) {
+		return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class [] { iface }, new BeanView(content, iface));
+	}
+	
+	/**
+	 * Returns the content behind a view or null if the object is not a view
+	 */
+	static ComplexContent getContent(Object object) {
+		if (object != null && Proxy.isProxyClass(object.getClass()) && Proxy.getInvocationHandler(object) instanceof BeanView) {
+			return ((BeanView) Proxy.getInvocationHandler(object)).content;
+		}
+		return null;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		int parameters = method.getParameterTypes().length;
+		if (method.getDeclaringClass().equals(Object.class)) {
+			if (name.equals("equals")) {
+				return proxy == args[0];
+			}
+			else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			return iface.getName() + "View[" + content + "]";
+		}
+		Map<Method, String> names = elementNames.get(iface);
+		if (!names.containsKey(method)) {
+			throw new UnsupportedOperationException("The method " + method + " is not a property of " + iface.getName());
+		}
+		String property = names.get(method);
+		if (parameters == 0) {
+			return get(property, method);
+		}
+		else if (property == null) {
+			throw new UnsupportedOperationException("The property set by " + method + " is transient");
+		}
+		else {
+			ComplexContent nested = getContent(args[0]);
+			content.set(property, nested == null ? args[0] : nested);
+			converted.remove(property);
+			return null;
+		}
+	}
+	
+	private Object get(String property, Method method) {
+		// a transient property is not part of the content
+		Object value = property == null ? NULL : converted.get(property);
+		if (value == null) {
+			value = convert(content.get(property), method.getReturnType(), method.getGenericReturnType());
+			Object existing = converted.putIfAbsent(property, value == null ? NULL : value);
+			if (existing != null) {
+				value = existing;
+			}
+		}
+		if (value == null || value == NULL) {
+			// primitives can not be null
+			return method.getReturnType().isPrimitive() ? Array.get(Array.newInstance(method.getReturnType(), 1), 0) : null;
+		}
+		return value;
+	}
+	
+	static Object convert(Object value, Class<?> target, Type genericTarget) {
+		if (value == null) {
+			return null;
+		}
+		else if (value instanceof ComplexContent && isViewable(target)) {
+			return newView((ComplexContent) value, target);
+		}
+		else if (value instanceof ComplexContent && !target.isInstance(value)) {
+			return BeanMapper.getAsBean((ComplexContent) value, target);
+		}
+		CollectionHandlerProvider targetHandler = TypeDefinitionCache.getCollectionHandler(target);
+		CollectionHandlerProvider sourceHandler = targetHandler == null ? null : CollectionHandlerFactory.getInstance().getHandler().getHandler(value.getClass());
+		if (sourceHandler != null) {
+			Class<?> componentType = targetHandler.getComponentType(genericTarget);
+			if (componentType == null) {
+				componentType = Object.class;
+			}
+			Collection indexes = sourceHandler.getIndexes(value);
+			Object collection = targetHandler.create(target, indexes.size());
+			for (Object index : indexes) {
+				targetHandler.set(collection, index, convert(sourceHandler.get(value, index), componentType, componentType));
+			}
+			return collection;
+		}
+		else if (TypeUtils.box(target).isInstance(value)) {
+			return value;
+		}
+		return ConverterFactory.getInstance().getConverter().convert(value, TypeUtils.box(target));
+	}
+	
+	/**
+	 * The accessors are grouped per property so the element name is resolved the same way as for beans: @XmlElement and @XmlAttribute rename it, @XmlTransient excludes it
+	 */
+	private static Map<Method, String> getElementNames(Class<?> iface) {
+		Map<String, Method> getters = new HashMap<String, Method>();
+		Map<String, Method> setters = new HashMap<String, Method>();
+		for (Method method : iface.getMethods()) {
+			String name = method.getName();
+			int parameters = method.getParameterTypes().length;
+			if (parameters == 0 && name.startsWith("get") && name.length() > 3 && !void.class.equals(method.getReturnType())) {
+				getters.put(getProperty(name, 3), method);
+			}
+			else if (parameters == 0 && name.startsWith("is") && name.length() > 2 && (boolean.class.equals(method.getReturnType()) || Boolean.class.equals(method.getReturnType()))) {
+				getters.put(getProperty(name, 2), method);
+			}
+			else if (parameters == 1 && name.startsWith("set") && name.length() > 3) {
+				setters.put(getProperty(name, 3), method);
+			}
+		}
+		Set<String> properties = new HashSet<String>(getters.keySet());
+		properties.addAll(setters.keySet());
+		Map<Method, String> names = new HashMap<Method, String>();
+		for (String property : properties) {
+			Method getter = getters.get(property);
+			Method setter = setters.get(property);
+			PropertyDescriptor descriptor;
+			try {
+				descriptor = new PropertyDescriptor(property, getter, setter);
+			}
+			// the getter and setter do not agree on the type, only the getter is a property then
+			catch (IntrospectionException e) {
+				try {
+					descriptor = new PropertyDescriptor(property, getter, null);
+				}
+				catch (IntrospectionException f) {
+					descriptor = null;
+				}
+			}
+			String name = descriptor == null ? property : (BeanMapper.isTransient(iface, descriptor) ? null : BeanMapper.getElementName(iface, descriptor));
+			if (getter != null) {
+				names.put(getter, name);
+			}
+			if (setter != null) {
+				names.put(setter, name);
+			}
+		}
+		return names;
+	}
+	
+	private static String getProperty(String methodName, int prefix) {
+		String property = methodName.substring(prefix);
+		// keep acronyms like getURL() intact, the same as java beans
+		if (property.length() > 1 && Character.isUpperCase(property.charAt(1))) {
+			return property;
+		}
+		return Character.toLowerCase(property.charAt(0)) + property.substring(1);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import be.nabu.libs.services.api.ServiceException;
+
+/**
+ * Admission control for method services, a call that gets no permit in time fails with POJO-4.
+ * The limit of a class is taken from the @ConcurrencyLimit annotation unless it is configured explicitly.
+ */
+public class Bulkhead {
+	
+	public static final String REJECTED = "POJO-4";
+	
+	private static ClassValue<AtomicReference<Bulkhead>> bulkheads = new ClassValue<AtomicReference<Bulkhead>>() {
+		@Override
+		protected AtomicReference<Bulkhead> computeValue(Class<?> type) {
+			ConcurrencyLimit annotation = type.getAnnotation(ConcurrencyLimit.class);
+			return new AtomicReference<Bulkhead>(annotation == null ? null : newBulkhead(type.getName(), annotation));
+		}
+	};
+	
+	/**
+	 * The bulkhead shared by all the methods of the class, this is null if it has no limit
+	 */
+	public static Bulkhead getBulkhead(Class<?> clazz) {
+		return bulkheads.get(clazz).get();
+	}
+	
+	/**
+	 * Overrides the limit of the class, a limit of 0 or less removes it.
+	 * Calls that are running in the previous bulkhead are not counted in the new one.
+	 */
+	public static void configure(Class<?> clazz, int maxConcurrent, long maxWait) {
+		bulkheads.get(clazz).set(maxConcurrent <= 0 ? null : new Bulkhead(clazz.getName(), maxConcurrent, maxWait));
+	}
+	
+	/**
+	 * Only applies the concurrency limit, use POJOConfiguration.apply() to apply the scope as well
+	 */
+	public static void configure(Class<?> clazz, POJOConfiguration configuration) {
+		if (configuration.getMaxConcurrent() != null) {
+			configure(clazz, configuration.getMaxConcurrent(), configuration.getMaxWait() == null ? 0 : configuration.getMaxWait());
+		}
+	}
+	
+	/**
+	 * Unlike the configuration, an annotation can not remove a limit so it must be positive
+	 */
+	static Bulkhead newBulkhead(String id, ConcurrencyLimit annotation) {
+		if (annotation.value() <= 0) {
+			throw new IllegalArgumentException("The @ConcurrencyLimit of " + id + " must be positive: " + annotation.value());
+		}
+		return new Bulkhead(id, annotation.value(), annotation.maxWait());
+	}
+	
+	private final String id;
+	private final int maxConcurrent;
+	private final long maxWait;
+	private final Semaphore permits;
+	private final LongAdder acceptedCount = new LongAdder(), rejectedCount = new LongAdder();
+	
+	Bulkhead(String id, int maxConcurrent, long maxWait) {
+		if (maxConcurrent <= 0) {
+			throw new IllegalArgumentException("The concurrency limit of " + id + " must be positive: " + maxConcurrent);
+		}
+		this.id = id;
+		this.maxConcurrent = maxConcurrent;
+		this.maxWait = maxWait;
+		this.permits = new Semaphore(maxConcurrent);
+	}
+	
+	/**
+	 * Every successful acquire must be followed by a release
+	 */
+	void acquire() throws ServiceException {
+		boolean acquired;
+		try {
+			acquired = maxWait <= 0 ? permits.tryAcquire() : permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("POJO-2", "Interrupted while waiting for a permit for " + id, e);
+		}
+		if (!acquired) {
+			rejectedCount.increment();
+			throw new ServiceException(REJECTED, "The concurrency limit of " + maxConcurrent + " for " + id + " has been reached");
+		}
+		acceptedCount.increment();
+	}
+	
+	void release() {
+		permits.release();
+	}
+	
+	public String getId() {
+		return id;
+	}
+	
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+	
+	public long getMaxWait() {
+		return maxWait;
+	}
+	
+	public int getInFlight() {
+		return maxConcurrent - permits.availablePermits();
+	}
+	
+	public long getAcceptedCount() {
+		return acceptedCount.sum();
+	}
+	
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+}
@@ -0,0 +1,42 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The output of the service is cached based on its input, this is meant for pure lookups that do not depend on the execution context.
+ * Every caller gets its own copy of a cached result, so changing it does not affect the cache.
+ * This can be set on a method or a class, the method annotation takes precedence.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.TYPE })
+public @interface CacheResult {
+	/**
+	 * The maximum amount of cached results, once it is reached the least recently used tenth of the results is evicted
+	 */
+	public int maxEntries() default 1000;
+	/**
+	 * How long (in milliseconds) a result stays valid, 0 means until it is evicted
+	 */
+	public long timeToLive() default 0;
+}
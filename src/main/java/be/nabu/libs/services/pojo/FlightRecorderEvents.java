@@ -0,0 +1,91 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+/**
+ * All direct use of the flight recorder api, this class is only loaded once POJOEvents has established that the api is available
+ */
+final class FlightRecorderEvents {
+	
+	private static final EventType SERVICE_EXECUTION = EventType.getEventType(ServiceExecutionEvent.class);
+	private static final EventType BEAN_CONVERSION = EventType.getEventType(BeanConversionEvent.class);
+	private static final EventType PROXY_DISPATCH = EventType.getEventType(ProxyDispatchEvent.class);
+	
+	static boolean isServiceExecutionEnabled() {
+		return SERVICE_EXECUTION.isEnabled();
+	}
+	
+	static boolean isBeanConversionEnabled() {
+		return BEAN_CONVERSION.isEnabled();
+	}
+	
+	static boolean isProxyDispatchEnabled() {
+		return PROXY_DISPATCH.isEnabled();
+	}
+	
+	static Object beginServiceExecution(String serviceId, int argumentCount) {
+		ServiceExecutionEvent event = new ServiceExecutionEvent();
+		event.serviceId = serviceId;
+		event.argumentCount = argumentCount;
+		event.begin();
+		return event;
+	}
+	
+	static Object beginBeanConversion(String parameter, Class<?> targetType) {
+		BeanConversionEvent event = new BeanConversionEvent();
+		event.parameter = parameter;
+		event.targetType = targetType;
+		event.begin();
+		return event;
+	}
+	
+	static Object beginProxyDispatch(Class<?> javaInterface, String method, String serviceId, boolean async) {
+		ProxyDispatchEvent event = new ProxyDispatchEvent();
+		event.javaInterface = javaInterface;
+		event.method = method;
+		event.serviceId = serviceId;
+		event.async = async;
+		event.begin();
+		return event;
+	}
+	
+	static void setConversionDuration(Object event, long conversionDuration) {
+		((ServiceExecutionEvent) event).conversionDuration = conversionDuration;
+	}
+	
+	static void setConvertedItems(Object event, int convertedItems) {
+		((BeanConversionEvent) event).convertedItems = convertedItems;
+	}
+	
+	static void setErrorCode(Object event, String errorCode) {
+		if (event instanceof ServiceExecutionEvent) {
+			((ServiceExecutionEvent) event).errorCode = errorCode;
+		}
+		else if (event instanceof ProxyDispatchEvent) {
+			((ProxyDispatchEvent) event).errorCode = errorCode;
+		}
+	}
+	
+	static void commit(Object event) {
+		((Event) event).commit();
+	}
+}
@@ -0,0 +1,138 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The invokers generated at compile time for a pojo service class, they call the methods directly without reflection.
+ * The generated class is named after the service class with the suffix "$POJOInvokers" and is listed in the index META-INF/services/be.nabu.libs.services.pojo.GeneratedInvokers
+ */
+public abstract class GeneratedInvokers {
+	
+	public static final String SUFFIX = "$POJOInvokers";
+	public static final String INDEX = "META-INF/services/" + GeneratedInvokers.class.getName();
+	
+	private static Logger logger = LoggerFactory.getLogger(GeneratedInvokers.class);
+	
+	/**
+	 * The generated classes listed in the index, per classloader
+	 */
+	private static Map<ClassLoader, Set<String>> indexes = new WeakHashMap<ClassLoader, Set<String>>();
+	
+	private static ClassValue<GeneratedInvokers> invokers = new ClassValue<GeneratedInvokers>() {
+		@Override
+		protected GeneratedInvokers computeValue(Class<?> type) {
+			String name = type.getName() + SUFFIX;
+			// only look for classes that are in the index, this avoids a class not found for every service class that was not processed
+			if (type.getClassLoader() == null || !getIndex(type.getClassLoader()).contains(name)) {
+				return null;
+			}
+			try {
+				Class<?> generated = Class.forName(name, true, type.getClassLoader());
+				return (GeneratedInvokers) generated.newInstance();
+			}
+			catch (Exception e) {
+				logger.warn("Could not load generated invokers: " + name, e);
+				return null;
+			}
+		}
+	};
+	
+	/**
+	 * Returns the invoker for a method with the given signature (see getSignature()) or null if it was not generated
+	 */
+	public abstract MethodInvoker getInvoker(String signature);
+	
+	/**
+	 * Returns the generated invoker for the method when called on the given class, or null if there is none
+	 */
+	public static MethodInvoker getInvoker(Class<?> clazz, Method method) {
+		GeneratedInvokers generated = invokers.get(clazz);
+		return generated == null ? null : generated.getInvoker(getSignature(method));
+	}
+	
+	/**
+	 * The method name followed by the parameter types, e.g. "concat(java.lang.String,java.lang.String[])"
+	 */
+	public static String getSignature(Method method) {
+		StringBuilder builder = new StringBuilder(method.getName()).append('(');
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(parameterTypes[i].getTypeName());
+		}
+		return builder.append(')').toString();
+	}
+	
+	private static Set<String> getIndex(ClassLoader loader) {
+		synchronized(indexes) {
+			Set<String> index = indexes.get(loader);
+			if (index == null) {
+				index = new HashSet<String>();
+				try {
+					Enumeration<URL> resources = loader.getResources(INDEX);
+					while (resources.hasMoreElements()) {
+						read(resources.nextElement(), index);
+					}
+				}
+				catch (IOException e) {
+					logger.warn("Could not read the generated invoker index", e);
+				}
+				index = Collections.unmodifiableSet(index);
+				indexes.put(loader, index);
+			}
+			return index;
+		}
+	}
+	
+	private static void read(URL url, Set<String> index) throws IOException {
+		InputStream input = url.openStream();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(input, Charset.forName("UTF-8")));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					index.add(line);
+				}
+			}
+		}
+		finally {
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import be.nabu.libs.services.pojo.POJOUtils.Dispatch;
+import be.nabu.libs.services.pojo.POJOUtils.ServiceInvocationHandler;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * The superclass of all generated proxies, the generated methods copy their arguments straight into the input and call execute()
+ */
+abstract public class GeneratedProxy {
+	
+	private final ServiceInvocationHandler<?> handler;
+	private final Method[] methods;
+	private final Dispatch[] dispatches;
+	
+	protected GeneratedProxy(ServiceInvocationHandler<?> handler, Method[] methods) {
+		this.handler = handler;
+		this.methods = methods;
+		this.dispatches = new Dispatch[methods.length];
+	}
+	
+	private Dispatch getDispatch(int index) {
+		Dispatch dispatch = dispatches[index];
+		if (dispatch == null) {
+			// the handler already caches them, a race here simply looks up the same instance twice
+			dispatch = handler.getDispatch(methods[index]);
+			dispatches[index] = dispatch;
+		}
+		return dispatch;
+	}
+	
+	/**
+	 * Default methods are only routed to a service if there is one that implements them
+	 */
+	protected boolean hasService(int index) {
+		return getDispatch(index).service != null;
+	}
+	
+	protected ComplexContent newInput(int index) {
+		Dispatch dispatch = getDispatch(index);
+		if (dispatch.service == null) {
+			throw new IllegalStateException("No service found that implements the method: " + methods[index]);
+		}
+		return dispatch.iface.getInputDefinition().newInstance();
+	}
+	
+	protected Object execute(int index, ComplexContent input) {
+		try {
+			return handler.execute(getDispatch(index), input);
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Error e) {
+			throw e;
+		}
+		// same behavior as a java.lang.reflect.Proxy
+		catch (Throwable e) {
+			for (Class<?> exceptionType : methods[index].getExceptionTypes()) {
+				if (exceptionType.isInstance(e)) {
+					throw POJOUtils.<RuntimeException>sneakyThrow(e);
+				}
+			}
+			throw new UndeclaredThrowableException(e);
+		}
+	}
+	
+	protected static void set(ComplexContent input, String name, Object value) {
+		input.set(name, value);
+	}
+	
+	public ServiceInvocationHandler<?> getInvocationHandler() {
+		return handler;
+	}
+	
+	@Override
+	public String toString() {
+		return "GeneratedProxy[" + handler.getJavaInterface().getName() + "]";
+	}
+}
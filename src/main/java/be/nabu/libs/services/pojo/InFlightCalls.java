@@ -0,0 +1,174 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import be.nabu.libs.services.api.ServiceException;
+
+/**
+ * The calls of a single method service that are currently executing, keyed by the values in the input
+ */
+public class InFlightCalls {
+
+	/**
+	 * The error code of a coalesced call that did not get the result within the maximum wait
+	 */
+	public static final String TIMED_OUT = "POJO-7";
+	
+	private final String id;
+	private final int maxInFlight;
+	private final long maxWait;
+	private final Map<Object, CompletableFuture<Object>> calls = new ConcurrentHashMap<Object, CompletableFuture<Object>>();
+	private final LongAdder leaderCount = new LongAdder(), coalescedCount = new LongAdder(), bypassedCount = new LongAdder(), timedOutCount = new LongAdder();
+	
+	InFlightCalls(String id, int maxInFlight, long maxWait) {
+		this.id = id;
+		this.maxInFlight = maxInFlight;
+		this.maxWait = maxWait;
+	}
+	
+	static InFlightCalls newCalls(String id, SingleFlight annotation) {
+		return new InFlightCalls(id, annotation.maxInFlight(), annotation.maxWait());
+	}
+	
+	/**
+	 * Joins the call for the given key, this returns null if the table is full and the call should not be coalesced
+	 */
+	Flight join(Object key) {
+		// the bound is approximate, a few concurrent leaders can pass it at the same time
+		CompletableFuture<Object> existing = calls.get(key);
+		if (existing == null) {
+			if (calls.size() >= maxInFlight) {
+				bypassedCount.increment();
+				return null;
+			}
+			CompletableFuture<Object> future = new CompletableFuture<Object>();
+			existing = calls.putIfAbsent(key, future);
+			if (existing == null) {
+				leaderCount.increment();
+				return new Flight(key, future, true);
+			}
+		}
+		coalescedCount.increment();
+		return new Flight(key, existing, false);
+	}
+	
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * The amount of calls that actually executed the method
+	 */
+	public long getLeaderCount() {
+		return leaderCount.sum();
+	}
+	
+	/**
+	 * The amount of calls that shared the result of another call
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.sum();
+	}
+	
+	/**
+	 * The amount of calls that were not coalesced because too many calls were in flight
+	 */
+	public long getBypassedCount() {
+		return bypassedCount.sum();
+	}
+	
+	/**
+	 * The amount of coalesced calls that stopped waiting before the result was available
+	 */
+	public long getTimedOutCount() {
+		return timedOutCount.sum();
+	}
+	
+	public long getMaxWait() {
+		return maxWait;
+	}
+	
+	public int getInFlight() {
+		return calls.size();
+	}
+	
+	final class Flight {
+		private final Object key;
+		private final CompletableFuture<Object> future;
+		private final boolean leader;
+		
+		private Flight(Object key, CompletableFuture<Object> future, boolean leader) {
+			this.key = key;
+			this.future = future;
+			this.leader = leader;
+		}
+		
+		boolean isLeader() {
+			return leader;
+		}
+		
+		boolean isDone() {
+			return future.isDone();
+		}
+		
+		/**
+		 * The key is removed before the result is published so calls arriving afterwards start a new flight
+		 */
+		void complete(Object value) {
+			calls.remove(key, future);
+			future.complete(value);
+		}
+		
+		void fail(ServiceException exception) {
+			calls.remove(key, future);
+			future.completeExceptionally(exception);
+		}
+		
+		/**
+		 * Waits for the leader, its exception is rethrown as is
+		 */
+		Object await() throws ServiceException {
+			try {
+				return maxWait <= 0 ? future.get() : future.get(maxWait, TimeUnit.MILLISECONDS);
+			}
+			catch (TimeoutException e) {
+				timedOutCount.increment();
+				throw new ServiceException(TIMED_OUT, "Timed out after " + maxWait + "ms while waiting for a coalesced call to " + id, e);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof ServiceException) {
+					throw (ServiceException) e.getCause();
+				}
+				throw new ServiceException("JAVA-0", "Coalesced call to " + id + " failed", e.getCause());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServiceException("POJO-2", "Interrupted while waiting for a coalesced call to " + id, e);
+			}
+		}
+	}
+}
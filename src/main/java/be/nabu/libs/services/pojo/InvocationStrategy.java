@@ -0,0 +1,135 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Determines how a method service calls the actual java method.
+ * The default can be set globally with the system property "be.nabu.services.pojo.invocationStrategy" or at runtime using setDefault()
+ */
+public enum InvocationStrategy {
+	/**
+	 * Uses Method.invoke() for every call
+	 */
+	REFLECTION {
+		@Override
+		public MethodInvoker newInvoker(Method method) {
+			return new ReflectionInvoker(method);
+		}
+	},
+	/**
+	 * Binds a method handle once, if the method can not be unreflected we fall back to reflection
+	 */
+	METHOD_HANDLE {
+		@Override
+		public MethodInvoker newInvoker(Method method) {
+			try {
+				return new MethodHandleInvoker(method);
+			}
+			catch (IllegalAccessException e) {
+				logger.debug("Could not create method handle for {}, falling back to reflection", method, e);
+				return REFLECTION.newInvoker(method);
+			}
+		}
+	};
+
+	private static Logger logger = LoggerFactory.getLogger(InvocationStrategy.class);
+
+	private static volatile InvocationStrategy defaultStrategy = parse(System.getProperty("be.nabu.services.pojo.invocationStrategy"));
+
+	public abstract MethodInvoker newInvoker(Method method);
+
+	public static InvocationStrategy getDefault() {
+		return defaultStrategy;
+	}
+
+	/**
+	 * Only services that have not built their invoker yet will pick up the new default
+	 */
+	public static void setDefault(InvocationStrategy strategy) {
+		if (strategy == null) {
+			throw new NullPointerException("The default invocation strategy can not be null");
+		}
+		defaultStrategy = strategy;
+	}
+
+	/**
+	 * An unknown value is logged and ignored, failing here would make the class (and every method service) unusable
+	 */
+	static InvocationStrategy parse(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return METHOD_HANDLE;
+		}
+		try {
+			return valueOf(value.trim().toUpperCase());
+		}
+		catch (IllegalArgumentException e) {
+			logger.warn("Unknown invocation strategy '{}', falling back to {}", value, METHOD_HANDLE);
+			return METHOD_HANDLE;
+		}
+	}
+
+	private static class ReflectionInvoker implements MethodInvoker {
+		private final Method method;
+
+		private ReflectionInvoker(Method method) {
+			this.method = method;
+		}
+
+		@Override
+		public Object invoke(Object instance, Object[] arguments) throws IllegalAccessException, InvocationTargetException {
+			return method.invoke(instance, arguments);
+		}
+	}
+
+	private static class MethodHandleInvoker implements MethodInvoker {
+		private final MethodHandle handle;
+
+		private MethodHandleInvoker(Method method) throws IllegalAccessException {
+			MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+			// static methods have no receiver, add a dummy one so the signature is always the same
+			if (Modifier.isStatic(method.getModifiers())) {
+				handle = MethodHandles.dropArguments(handle, 0, Object.class);
+			}
+			// normalize to (Object, Object[])Object so we can use invokeExact, void methods return null
+			this.handle = handle.asType(handle.type().generic())
+				.asSpreader(Object[].class, method.getParameterTypes().length)
+				.asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+		}
+
+		@Override
+		public Object invoke(Object instance, Object[] arguments) throws InvocationTargetException {
+			try {
+				return (Object) handle.invokeExact(instance, arguments);
+			}
+			// keep the same contract as reflection so the exception handling is identical
+			catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Invokes a single java method, an invoker is built once per method and reused for every call
+ */
+public interface MethodInvoker {
+	/**
+	 * Any exception thrown by the method itself must be wrapped in an InvocationTargetException, regardless of how the method is called
+	 */
+	public Object invoke(Object instance, Object[] arguments) throws IllegalAccessException, InvocationTargetException;
+}
@@ -17,9 +17,14 @@
 
 package be.nabu.libs.services.pojo;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import be.nabu.libs.services.ServiceRuntime;
@@ -27,7 +32,10 @@ import be.nabu.libs.services.api.DefinedService;
 import be.nabu.libs.services.api.ExecutionContext;
 import be.nabu.libs.services.api.ServiceDescription;
 import be.nabu.libs.services.api.ServiceInterface;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexType;
 import be.nabu.libs.types.api.DefinedTypeResolver;
+import be.nabu.libs.types.api.Element;
 
 public class MethodService implements DefinedService {
 
@@ -41,6 +49,28 @@ public class MethodService implements DefinedService {
 	 * You can have the service runtime injected into your bean, this is the reflected field where it will be put
 	 */
 	private Field injectContext, injectRuntime;
+	/**
+	 * The strategy used to call the method, if not set explicitly the global default is used
+	 */
+	private InvocationStrategy invocationStrategy;
+	private volatile MethodInvoker invoker;
+	/**
+	 * The argument bindings are compiled once, the element names are cached per input type
+	 */
+	private volatile ArgumentBinding[] bindings;
+	private volatile InputNames inputNames;
+	private volatile String outputName;
+	private volatile boolean outputNameResolved;
+	private volatile ServiceMetrics metrics;
+	private volatile ResultCache resultCache;
+	private volatile boolean resultCacheResolved;
+	private volatile InFlightCalls inFlightCalls;
+	private volatile boolean inFlightCallsResolved;
+	private volatile Bulkhead bulkhead;
+	private volatile boolean bulkheadResolved;
+	private volatile Method batchMethod;
+	private volatile boolean batchMethodResolved;
+	private volatile MethodInvoker batchInvoker;
 	
 	public MethodService(DefinedTypeResolver definedTypeResolver, Class<?> clazz, Method method) {
 		this.definedTypeResolver = definedTypeResolver;
@@ -62,6 +92,10 @@ public class MethodService implements DefinedService {
 		return null;
 	}
 	
+	public BeanLifecycle getLifecycle() {
+		return BeanLifecycle.getLifecycle(clazz);
+	}
+	
 	Field getInjectContext() {
 		return injectContext;
 	}
@@ -70,6 +104,73 @@ public class MethodService implements DefinedService {
 		return injectRuntime;
 	}
 
+	public InvocationStrategy getInvocationStrategy() {
+		return invocationStrategy == null ? InvocationStrategy.getDefault() : invocationStrategy;
+	}
+
+	public void setInvocationStrategy(InvocationStrategy invocationStrategy) {
+		this.invocationStrategy = invocationStrategy;
+		// rebuild on next call
+		this.invoker = null;
+		this.batchInvoker = null;
+	}
+	
+	/**
+	 * Unless a strategy was set explicitly, an invoker generated at compile time is preferred
+	 */
+	MethodInvoker getInvoker() {
+		if (invoker == null) {
+			synchronized(this) {
+				if (invoker == null) {
+					MethodInvoker generated = invocationStrategy == null ? GeneratedInvokers.getInvoker(clazz, method) : null;
+					invoker = generated == null ? getInvocationStrategy().newInvoker(method) : generated;
+				}
+			}
+		}
+		return invoker;
+	}
+
+	ArgumentBinding[] getBindings() {
+		if (bindings == null) {
+			synchronized(this) {
+				if (bindings == null) {
+					bindings = ArgumentBinding.compile(method);
+				}
+			}
+		}
+		return bindings;
+	}
+	
+	/**
+	 * The input is usually an instance of our own input definition but it can also be that of an interface we implement
+	 */
+	String[] getInputNames(ComplexType type) {
+		InputNames inputNames = this.inputNames;
+		if (inputNames == null || inputNames.type != type) {
+			Collection<Element<?>> children = TypeUtils.getAllChildren(type);
+			String[] names = new String[children.size()];
+			int i = 0;
+			for (Element<?> child : children) {
+				names[i++] = child.getName();
+			}
+			inputNames = new InputNames(type, names);
+			this.inputNames = inputNames;
+		}
+		return inputNames.names;
+	}
+
+	/**
+	 * The name of the single output element, this is null if the method does not return anything
+	 */
+	String getOutputName() {
+		if (!outputNameResolved) {
+			Iterator<Element<?>> iterator = getServiceInterface().getOutputDefinition().iterator();
+			outputName = iterator.hasNext() ? iterator.next().getName() : null;
+			outputNameResolved = true;
+		}
+		return outputName;
+	}
+
 	@Override
 	public MethodServiceInstance newInstance() {
 		return new MethodServiceInstance(this);
@@ -121,4 +222,141 @@ public class MethodService implements DefinedService {
 		}
 		return description;
 	}
+	
+	ServiceMetrics getMetrics() {
+		if (metrics == null) {
+			metrics = POJOMetrics.getServiceMetrics(getId());
+		}
+		return metrics;
+	}
+	
+	/**
+	 * The cache for the results of this service, this is null if neither the method nor its class is annotated with @CacheResult
+	 */
+	public ResultCache getResultCache() {
+		if (!resultCacheResolved) {
+			synchronized(this) {
+				if (!resultCacheResolved) {
+					CacheResult annotation = getAnnotation(CacheResult.class);
+					resultCache = annotation == null ? null : ResultCache.newCache(getId(), annotation);
+					resultCacheResolved = true;
+				}
+			}
+		}
+		return resultCache;
+	}
+	
+	/**
+	 * Tracks concurrent calls so identical ones can be coalesced, this is null if neither the method nor its class is annotated with @SingleFlight
+	 */
+	public InFlightCalls getInFlightCalls() {
+		if (!inFlightCallsResolved) {
+			synchronized(this) {
+				if (!inFlightCallsResolved) {
+					SingleFlight annotation = getAnnotation(SingleFlight.class);
+					inFlightCalls = annotation == null ? null : InFlightCalls.newCalls(getId(), annotation);
+					inFlightCallsResolved = true;
+				}
+			}
+		}
+		return inFlightCalls;
+	}
+	
+	/**
+	 * A limit on the method itself takes precedence, otherwise the (configurable) limit of the class is used
+	 */
+	public Bulkhead getBulkhead() {
+		if (!bulkheadResolved) {
+			synchronized(this) {
+				if (!bulkheadResolved) {
+					ConcurrencyLimit annotation = getImplementation().getAnnotation(ConcurrencyLimit.class);
+					if (annotation == null) {
+						annotation = method.getAnnotation(ConcurrencyLimit.class);
+					}
+					bulkhead = annotation == null ? null : Bulkhead.newBulkhead(getId(), annotation);
+					bulkheadResolved = true;
+				}
+			}
+		}
+		return bulkhead == null ? Bulkhead.getBulkhead(clazz) : bulkhead;
+	}
+	
+	/**
+	 * The method named by @BatchedBy, this is null if the service is not annotated
+	 */
+	public Method getBatchMethod() {
+		if (!batchMethodResolved) {
+			synchronized(this) {
+				if (!batchMethodResolved) {
+					BatchedBy annotation = getAnnotation(BatchedBy.class);
+					batchMethod = annotation == null ? null : findBatchMethod(annotation.value());
+					batchMethodResolved = true;
+				}
+			}
+		}
+		return batchMethod;
+	}
+	
+	private Method findBatchMethod(String name) {
+		for (Method candidate : clazz.getMethods()) {
+			if (candidate.getName().equals(name) && candidate.getParameterTypes().length == method.getParameterTypes().length && !Modifier.isStatic(candidate.getModifiers())) {
+				boolean lists = true;
+				for (Class<?> parameterType : candidate.getParameterTypes()) {
+					lists &= List.class.equals(parameterType);
+				}
+				boolean returns = void.class.equals(method.getReturnType()) ? void.class.equals(candidate.getReturnType()) : List.class.isAssignableFrom(candidate.getReturnType());
+				if (lists && returns) {
+					return candidate;
+				}
+			}
+		}
+		throw new IllegalArgumentException("The batch method '" + name + "' of " + getId() + " must take a List for every parameter of the service and return a List");
+	}
+	
+	MethodInvoker getBatchInvoker() {
+		if (batchInvoker == null) {
+			synchronized(this) {
+				if (batchInvoker == null) {
+					batchInvoker = getInvocationStrategy().newInvoker(getBatchMethod());
+				}
+			}
+		}
+		return batchInvoker;
+	}
+	
+	/**
+	 * The implementation takes precedence over the declared method, which takes precedence over the class
+	 */
+	private <A extends Annotation> A getAnnotation(Class<A> annotationClass) {
+		A annotation = getImplementation().getAnnotation(annotationClass);
+		if (annotation == null) {
+			annotation = method.getAnnotation(annotationClass);
+		}
+		if (annotation == null) {
+			annotation = clazz.getAnnotation(annotationClass);
+		}
+		return annotation;
+	}
+	
+	/**
+	 * The method can be declared in an interface, this returns the implementation in the source class if there is one
+	 */
+	private Method getImplementation() {
+		try {
+			return clazz.getMethod(method.getName(), method.getParameterTypes());
+		}
+		catch (NoSuchMethodException e) {
+			return method;
+		}
+	}
+	
+	private static final class InputNames {
+		private final ComplexType type;
+		private final String[] names;
+		
+		private InputNames(ComplexType type, String[] names) {
+			this.type = type;
+			this.names = names;
+		}
+	}
 }
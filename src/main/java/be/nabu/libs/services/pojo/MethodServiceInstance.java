@@ -18,11 +18,19 @@
 package be.nabu.libs.services.pojo;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Type;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,14 +39,16 @@ import be.nabu.libs.services.ServiceRuntime;
 import be.nabu.libs.services.api.ExecutionContext;
 import be.nabu.libs.services.api.ServiceException;
 import be.nabu.libs.services.api.ServiceInstance;
-import be.nabu.libs.types.CollectionHandlerFactory;
-import be.nabu.libs.types.TypeUtils;
-import be.nabu.libs.types.api.CollectionHandlerProvider;
 import be.nabu.libs.types.api.ComplexContent;
-import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.api.ComplexType;
 
 public class MethodServiceInstance implements ServiceInstance {
 
+	/**
+	 * The batch that is running a call on this thread, that call reuses the bean of the batch instead of acquiring its own
+	 */
+	private static ThreadLocal<BatchIterator> currentBatch = new ThreadLocal<BatchIterator>();
+	
 	private MethodService definition;
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	
@@ -51,82 +61,280 @@ public class MethodServiceInstance implements ServiceInstance {
 		return definition;
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public ComplexContent execute(ExecutionContext executionContext, ComplexContent input) throws ServiceException {
-		List<Object> arguments = new ArrayList<Object>();
-		Class<?>[] parameterTypes = getDefinition().getMethod().getParameterTypes();
-		Type[] genericParameterTypes = getDefinition().getMethod().getGenericParameterTypes();
-		if (input != null) {
-			int i = 0;
-			for (Element<?> element : TypeUtils.getAllChildren(input.getType())) {
-				Object value = input.get(element.getName());
-				// do some conversion if necessary
-				if (value != null) {
-					// the following check was deprecated (2016-01-25) because it fails to detect lists of unmatched types
-					// !parameterTypes[i].isAssignableFrom(value.getClass())
-					CollectionHandlerProvider sourceCollectionHandler = CollectionHandlerFactory.getInstance().getHandler().getHandler(value.getClass());
-					// @18-11-2020: if we have a value that is a java.util.Map and the target is also a java.util.Map, we don't do a ... mapping :|
-					// otherwise we replace the original map with a new one and we don't see any changes done to it by reference (e.g. map.put in utils!)
-					if (sourceCollectionHandler != null && !parameterTypes[i].equals(Object.class) && (!(value instanceof Map) || !Map.class.isAssignableFrom(parameterTypes[i]))) {
-						CollectionHandlerProvider targetCollectionHandler = CollectionHandlerFactory.getInstance().getHandler().getHandler(parameterTypes[i]);
-						if (targetCollectionHandler == null) {
-							throw new ServiceException("POJO-1", "The source object '" + element.getName() + "' is a collection but the target object '" + parameterTypes[i] + "' is not");
-						}
-						Collection sourceIndexes = sourceCollectionHandler.getIndexes(value);
-						Class<?> targetType = targetCollectionHandler.getComponentType(genericParameterTypes[i]);
-						Object targetCollection = targetCollectionHandler.create(parameterTypes[i], sourceIndexes.size());
-						for (Object index : sourceIndexes) {
-							Object item = sourceCollectionHandler.get(value, index);
-							if (item != null && !targetType.isAssignableFrom(item.getClass()) && item instanceof ComplexContent) {
-								item = TypeUtils.getAsBean((ComplexContent) item, targetType);
-							}
-							targetCollectionHandler.set(targetCollection, index, item);
-						}
-						arguments.add(targetCollection);
-					}
-					else if (value instanceof ComplexContent) {
-						Class<?> targetType = parameterTypes[i];
-						if (Object.class.equals(targetType) || ComplexContent.class.isAssignableFrom(targetType)) {
-							arguments.add(value);	
-						}
-						else {
-							arguments.add(TypeUtils.getAsBean((ComplexContent) value, targetType));
-						}
-					}
-					else {
-						arguments.add(value);
-					}
-				}
-				else {
-					arguments.add(value);
-				}
-				i++;
+		ResultCache cache = getDefinition().getResultCache();
+		InFlightCalls inFlightCalls = getDefinition().getInFlightCalls();
+		if (cache == null && inFlightCalls == null) {
+			return executeUncached(executionContext, input);
+		}
+		Object key = ResultCache.getKey(input);
+		// shared results are copied so no caller can change the result of another
+		boolean complex = isComplexOutput();
+		if (cache != null) {
+			ResultCache.Entry entry = cache.get(key);
+			if (entry != null) {
+				return wrap(ResultCache.copy(entry.getValue(), complex));
+			}
+		}
+		InFlightCalls.Flight flight = inFlightCalls == null ? null : inFlightCalls.join(key);
+		if (flight != null && !flight.isLeader()) {
+			return wrap(ResultCache.copy(flight.await(), complex));
+		}
+		try {
+			long generation = cache == null ? 0 : cache.getGeneration();
+			ComplexContent output = executeUncached(executionContext, input);
+			String outputName = getDefinition().getOutputName();
+			// the leader keeps the original, the others get a copy of a snapshot taken before the leader can change it
+			Object value = outputName == null ? null : ResultCache.copy(output.get(outputName), complex);
+			if (cache != null) {
+				cache.put(key, value, generation);
+			}
+			if (flight != null) {
+				flight.complete(value);
+			}
+			return output;
+		}
+		catch (ServiceException e) {
+			if (flight != null) {
+				flight.fail(e);
+			}
+			throw e;
+		}
+		finally {
+			// make sure no one keeps waiting if something unexpected happened
+			if (flight != null && !flight.isDone()) {
+				flight.fail(new ServiceException("POJO-3", "The coalesced call to " + getDefinition().getId() + " did not complete"));
 			}
 		}
+	}
+	
+	private ComplexContent executeUncached(ExecutionContext executionContext, ComplexContent input) throws ServiceException {
+		Bulkhead bulkhead = getDefinition().getBulkhead();
+		if (bulkhead == null) {
+			return executeMeasured(executionContext, input);
+		}
+		try {
+			bulkhead.acquire();
+		}
+		catch (ServiceException e) {
+			if (POJOMetrics.isEnabled()) {
+				getDefinition().getMetrics().error(e.getCode());
+			}
+			throw e;
+		}
+		try {
+			return executeMeasured(executionContext, input);
+		}
+		finally {
+			bulkhead.release();
+		}
+	}
+	
+	private ComplexContent executeMeasured(ExecutionContext executionContext, ComplexContent input) throws ServiceException {
+		ServiceMetrics metrics = POJOMetrics.isEnabled() ? getDefinition().getMetrics() : null;
+		Object event = POJOEvents.isServiceExecutionEnabled() ? newEvent() : null;
+		if (metrics == null && event == null) {
+			return execute(executionContext, input, null, null);
+		}
+		try {
+			return execute(executionContext, input, metrics, event);
+		}
+		catch (ServiceException e) {
+			if (metrics != null) {
+				metrics.error(e.getCode());
+			}
+			if (event != null) {
+				POJOEvents.setErrorCode(event, e.getCode());
+			}
+			throw e;
+		}
+		finally {
+			if (event != null) {
+				POJOEvents.commit(event);
+			}
+		}
+	}
+	
+	private ComplexContent execute(ExecutionContext executionContext, ComplexContent input, ServiceMetrics metrics, Object event) throws ServiceException {
+		boolean timed = metrics != null || event != null;
+		long started = timed ? System.nanoTime() : 0;
+		Object[] arguments = getArguments(input);
+		long converted = timed ? System.nanoTime() : 0;
+		BeanLifecycle lifecycle = getDefinition().getLifecycle();
+		BatchIterator batch = currentBatch.get();
+		if (batch != null && batch.service == getDefinition()) {
+			// only the call started by the batch, any nested call acquires its own bean
+			currentBatch.remove();
+		}
 		else {
-			for (int i = 0; i < genericParameterTypes.length; i++) {
-				arguments.add(null);
+			batch = null;
+		}
+		ExecutionContext previousContext = lifecycle.isShared() ? BeanLifecycle.enter(executionContext) : null;
+		Object instance = null;
+		try {
+			instance = batch == null ? lifecycle.acquire(getDefinition(), executionContext) : batch.getInstance(executionContext);
+			Object returnValue = call(getDefinition().getInvoker(), getDefinition().getMethod(), instance, arguments);
+			long executed = timed ? System.nanoTime() : 0;
+			ComplexContent output = wrap(returnValue);
+			if (timed) {
+				record(metrics, event, converted - started, executed - converted, System.nanoTime() - executed);
+			}
+			return output;
+		}
+		catch (ServiceException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new ServiceException("JAVA-0", "Method " + getDefinition().getMethod() + " threw exception", e);
+		}
+		finally {
+			if (instance != null && batch == null) {
+				lifecycle.release(instance);
+			}
+			if (lifecycle.isShared()) {
+				BeanLifecycle.exit(previousContext);
+			}
+		}
+	}
+	
+	private Object newEvent() {
+		return POJOEvents.beginServiceExecution(getDefinition().getId(), getDefinition().getBindings().length);
+	}
+	
+	private void record(ServiceMetrics metrics, Object event, long inputConversion, long execution, long outputConversion) {
+		if (metrics != null) {
+			metrics.record(inputConversion, execution, outputConversion);
+		}
+		if (event != null) {
+			POJOEvents.setConversionDuration(event, inputConversion + outputConversion);
+		}
+	}
+	
+	/**
+	 * Executes the service for each input, the bean is acquired once and reused for the whole batch.
+	 * Each input is run in its own service runtime, so it is tracked and intercepted like any other call.
+	 * The inputs are processed lazily as the stream is consumed, a failing input does not stop the batch but is reported in its result.
+	 * Pooled and thread local beans are released after each input, so stopping early (e.g. findFirst() or limit()) does not hold on to them.
+	 * Other beans are released once all inputs are processed or when the stream is closed, use try-with-resources if the stream may not be fully consumed.
+	 */
+	public Stream<BatchResult> executeBatch(ExecutionContext executionContext, Iterator<ComplexContent> inputs) {
+		final BatchIterator iterator = new BatchIterator(executionContext, inputs);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				iterator.release();
+			}
+		});
+	}
+	
+	public Stream<BatchResult> executeBatch(ExecutionContext executionContext, Iterable<ComplexContent> inputs) {
+		return executeBatch(executionContext, inputs.iterator());
+	}
+	
+	/**
+	 * Executes all the inputs with a single call to the batch method of the service (see @BatchedBy) and returns one output per input in the same order.
+	 * The bean is acquired once in the given context. The batch method is one java call so it does not run in a service runtime per input.
+	 */
+	@SuppressWarnings("unchecked")
+	List<ComplexContent> executeBatchMethod(ExecutionContext executionContext, List<ComplexContent> inputs) throws ServiceException {
+		Method batchMethod = getDefinition().getBatchMethod();
+		if (batchMethod == null) {
+			throw new IllegalStateException("The service " + getDefinition().getId() + " has no batch method");
+		}
+		Object[] arguments = new Object[getDefinition().getBindings().length];
+		for (int i = 0; i < arguments.length; i++) {
+			arguments[i] = new ArrayList<Object>(inputs.size());
+		}
+		for (ComplexContent input : inputs) {
+			Object[] single = getArguments(input);
+			for (int i = 0; i < arguments.length; i++) {
+				((List<Object>) arguments[i]).add(single[i]);
 			}
 		}
+		BeanLifecycle lifecycle = getDefinition().getLifecycle();
+		ExecutionContext previousContext = lifecycle.isShared() ? BeanLifecycle.enter(executionContext) : null;
+		Object instance = null;
+		Object returnValue;
 		try {
-			Object instance = getDefinition().getSourceClass().newInstance();
-			if (getDefinition().getInjectContext() != null) {
-				getDefinition().getInjectContext().set(instance, executionContext);
+			instance = lifecycle.acquire(getDefinition(), executionContext);
+			returnValue = call(getDefinition().getBatchInvoker(), batchMethod, instance, arguments);
+		}
+		catch (ServiceException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new ServiceException("JAVA-0", "Method " + batchMethod + " threw exception", e);
+		}
+		finally {
+			if (instance != null) {
+				lifecycle.release(instance);
 			}
-			if (getDefinition().getInjectRuntime() != null) {
-				getDefinition().getInjectRuntime().set(instance, ServiceRuntime.getRuntime());
+			if (lifecycle.isShared()) {
+				BeanLifecycle.exit(previousContext);
 			}
-			logger.debug("Invoking {} ({})", getDefinition().getMethod(), arguments);
-			Object returnValue = getDefinition().getMethod().invoke(instance, arguments.toArray());
-			ComplexContent response = getDefinition().getServiceInterface().getOutputDefinition().newInstance();
-			if (returnValue != null) {
-				response.set(
-					getDefinition().getServiceInterface().getOutputDefinition().iterator().next().getName(),
-					returnValue
-				);
+		}
+		List<ComplexContent> outputs = new ArrayList<ComplexContent>(inputs.size());
+		if (void.class.equals(getDefinition().getMethod().getReturnType())) {
+			for (int i = 0; i < inputs.size(); i++) {
+				outputs.add(wrap(null));
 			}
-			return response;
+		}
+		else {
+			List<?> results = (List<?>) returnValue;
+			if (results == null || results.size() != inputs.size()) {
+				throw new ServiceException("POJO-6", "The batch method " + batchMethod + " returned " + (results == null ? "no" : results.size()) + " results for " + inputs.size() + " inputs");
+			}
+			for (Object result : results) {
+				outputs.add(wrap(result));
+			}
+		}
+		return outputs;
+	}
+	
+	private Object[] getArguments(ComplexContent input) throws ServiceException {
+		ArgumentBinding[] bindings = getDefinition().getBindings();
+		Object[] arguments = new Object[bindings.length];
+		if (input != null) {
+			String[] names = getDefinition().getInputNames(input.getType());
+			for (int i = 0; i < Math.min(names.length, bindings.length); i++) {
+				arguments[i] = bindings[i].bind(names[i], input.get(names[i]));
+			}
+		}
+		return arguments;
+	}
+	
+	private boolean isComplexOutput() {
+		String outputName = getDefinition().getOutputName();
+		return outputName != null && getDefinition().getServiceInterface().getOutputDefinition().get(outputName).getType() instanceof ComplexType;
+	}
+	
+	private ComplexContent wrap(Object returnValue) {
+		ComplexContent response = getDefinition().getServiceInterface().getOutputDefinition().newInstance();
+		if (returnValue != null) {
+			response.set(getDefinition().getOutputName(), Streaming.toList(returnValue));
+		}
+		return response;
+	}
+	
+	private Object call(MethodInvoker invoker, Method method, Object instance, Object[] arguments) throws ServiceException {
+		try {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Invoking {} ({})", method, Arrays.asList(arguments));
+			}
+			Object returnValue = invoker.invoke(instance, arguments);
+			// an asynchronous method is exposed with the eventual result as output
+			if ((returnValue instanceof Future || returnValue instanceof CompletionStage) && MethodServiceInterface.isAsync(method)) {
+				try {
+					// a stage may not support the future methods (e.g. a minimal stage), so convert it first
+					Future<?> future = returnValue instanceof CompletionStage ? ((CompletionStage<?>) returnValue).toCompletableFuture() : (Future<?>) returnValue;
+					returnValue = POJOUtils.await(future);
+				}
+				catch (ExecutionException e) {
+					throw new InvocationTargetException(e.getCause());
+				}
+			}
+			return returnValue;
 		}
 		catch (InvocationTargetException e) {
 			if (e.getCause() instanceof ServiceException) {
@@ -135,10 +343,10 @@ public class MethodServiceInstance implements ServiceInstance {
 			// any non-checked exception can pass right through...
 			else if (e.getCause() instanceof RuntimeException) {
 //				throw (RuntimeException) e.getCause();
-				throw new ServiceException("JAVA-0", "Method " + getDefinition().getMethod() + " threw exception", e);
+				throw new ServiceException("JAVA-0", "Method " + method + " threw exception", e);
 			}
 			else {
-				throw new ServiceException("JAVA-0", "Method " + getDefinition().getMethod() + " threw exception", e);
+				throw new ServiceException("JAVA-0", "Method " + method + " threw exception", e);
 			}
 		}
 		catch (Exception e) {
@@ -146,9 +354,80 @@ public class MethodServiceInstance implements ServiceInstance {
 				throw (ServiceException) e;
 			}
 			else {
-				throw new ServiceException("JAVA-0", "Method " + getDefinition().getMethod() + " threw exception", e);
+				throw new ServiceException("JAVA-0", "Method " + method + " threw exception", e);
 			}
 		}
 	}
+	
+	private class BatchIterator implements Iterator<BatchResult> {
+		private MethodService service = getDefinition();
+		private ExecutionContext executionContext;
+		private Iterator<ComplexContent> inputs;
+		private BeanLifecycle lifecycle;
+		private Object instance;
+		private boolean released;
+		private int index;
+		
+		private BatchIterator(ExecutionContext executionContext, Iterator<ComplexContent> inputs) {
+			this.executionContext = executionContext;
+			this.inputs = inputs;
+			this.lifecycle = service.getLifecycle();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			boolean hasNext = !released && inputs.hasNext();
+			if (!hasNext) {
+				release();
+			}
+			return hasNext;
+		}
 
+		@Override
+		public BatchResult next() {
+			if (released) {
+				throw new NoSuchElementException();
+			}
+			ComplexContent input = inputs.next();
+			int position = index++;
+			currentBatch.set(this);
+			try {
+				return new BatchResult(position, input, new ServiceRuntime(service, executionContext).run(input), null);
+			}
+			catch (ServiceException e) {
+				return new BatchResult(position, input, null, e);
+			}
+			finally {
+				currentBatch.remove();
+				// the consumer may never ask for the next result, so recycled instances are handed back after every input
+				if (lifecycle.isRecycled() && instance != null) {
+					lifecycle.release(instance);
+					instance = null;
+				}
+			}
+		}
+		
+		/**
+		 * The bean is acquired by the first call, the next calls get their own context injected unless the bean looks it up itself
+		 */
+		private Object getInstance(ExecutionContext context) throws Exception {
+			if (instance == null) {
+				instance = lifecycle.acquire(service, context);
+			}
+			else if (!lifecycle.isShared()) {
+				BeanLifecycle.inject(service, instance, context);
+			}
+			return instance;
+		}
+		
+		private void release() {
+			if (!released) {
+				released = true;
+				if (instance != null) {
+					lifecycle.release(instance);
+					instance = null;
+				}
+			}
+		}
+	}
 }
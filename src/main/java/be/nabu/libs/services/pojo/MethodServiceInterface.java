@@ -18,12 +18,18 @@
 package be.nabu.libs.services.pojo;
 
 import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.jws.WebMethod;
 import javax.jws.WebParam;
@@ -35,19 +41,15 @@ import be.nabu.libs.property.ValueUtils;
 import be.nabu.libs.property.api.Value;
 import be.nabu.libs.services.api.DefinedServiceInterface;
 import be.nabu.libs.services.api.ServiceInterface;
-import be.nabu.libs.types.CollectionHandlerFactory;
 import be.nabu.libs.types.DefinedTypeResolverFactory;
-import be.nabu.libs.types.TypeUtils;
 import be.nabu.libs.types.api.CollectionHandlerProvider;
 import be.nabu.libs.types.api.ComplexType;
 import be.nabu.libs.types.api.DefinedTypeResolver;
 import be.nabu.libs.types.api.SimpleType;
 import be.nabu.libs.types.api.Type;
-import be.nabu.libs.types.base.ArrayCollectionHandlerProvider;
 import be.nabu.libs.types.base.ComplexElementImpl;
 import be.nabu.libs.types.base.SimpleElementImpl;
 import be.nabu.libs.types.base.ValueImpl;
-import be.nabu.libs.types.java.BeanResolver;
 import be.nabu.libs.types.properties.CollectionHandlerProviderProperty;
 import be.nabu.libs.types.properties.ElementQualifiedDefaultProperty;
 import be.nabu.libs.types.properties.MaxOccursProperty;
@@ -57,7 +59,21 @@ import be.nabu.libs.types.structure.Structure;
 
 public class MethodServiceInterface implements DefinedServiceInterface {
 
-	private static Map<Method, MethodServiceInterface> ifaces = new HashMap<Method, MethodServiceInterface>();
+	/**
+	 * The interfaces are stored on the declaring class of the method so they are collected together with their classloader
+	 */
+	private static ClassValue<ConcurrentMap<Method, MethodServiceInterface>> ifaces = new ClassValue<ConcurrentMap<Method, MethodServiceInterface>>() {
+		@Override
+		protected ConcurrentMap<Method, MethodServiceInterface> computeValue(Class<?> type) {
+			classes.add(new WeakReference<Class<?>>(type));
+			return new ConcurrentHashMap<Method, MethodServiceInterface>();
+		}
+	};
+	
+	/**
+	 * The classes that have cached interfaces, this allows for explicit eviction per classloader
+	 */
+	private static Set<WeakReference<Class<?>>> classes = Collections.newSetFromMap(new ConcurrentHashMap<WeakReference<Class<?>>, Boolean>());
 	
 	public static MethodServiceInterface wrap(Class<?> clazz, String name) {
 		for (Method method : clazz.getMethods()) {
@@ -69,14 +85,35 @@ public class MethodServiceInterface implements DefinedServiceInterface {
 	}
 	
 	public static MethodServiceInterface wrap(DefinedTypeResolver typeResolver, Method method) {
-		if (!ifaces.containsKey(method)) {
-			synchronized(MethodServiceInterface.class) {
-				if (!ifaces.containsKey(method)) {
-					ifaces.put(method, new MethodServiceInterface(typeResolver, method));
-				}
+		ConcurrentMap<Method, MethodServiceInterface> methods = ifaces.get(method.getDeclaringClass());
+		MethodServiceInterface iface = methods.get(method);
+		if (iface == null) {
+			// the constructor can wrap parent interfaces so we don't build it inside the map
+			iface = new MethodServiceInterface(typeResolver, method);
+			MethodServiceInterface existing = methods.putIfAbsent(method, iface);
+			if (existing != null) {
+				iface = existing;
+			}
+		}
+		return iface;
+	}
+	
+	/**
+	 * Removes the cached interfaces and type definitions for all classes loaded by the given classloader (or one of its children)
+	 */
+	public static void evict(ClassLoader loader) {
+		TypeDefinitionCache.evict(loader);
+		Iterator<WeakReference<Class<?>>> iterator = classes.iterator();
+		while (iterator.hasNext()) {
+			Class<?> clazz = iterator.next().get();
+			if (clazz == null) {
+				iterator.remove();
+			}
+			else if (POJOResolver.isLoadedBy(clazz, loader)) {
+				iterator.remove();
+				ifaces.remove(clazz);
 			}
 		}
-		return ifaces.get(method);
 	}
 	
 	public static MethodServiceInterface wrap(Method method) {
@@ -145,8 +182,10 @@ public class MethodServiceInterface implements DefinedServiceInterface {
 		if (genericType == null) {
 			genericType = clazz;
 		}
-		CollectionHandlerProvider<?, ?> handler = clazz.isArray() && !clazz.equals(byte[].class) ? new ArrayCollectionHandlerProvider((Class<? extends Object[]>) clazz) : CollectionHandlerFactory.getInstance().getHandler().getHandler(clazz);
-		Class<?> actualType = handler == null ? clazz : handler.getComponentType(genericType);
+		// streaming types are described as lists, they are never materialized as such
+		boolean streaming = Streaming.isStreaming(clazz);
+		CollectionHandlerProvider<?, ?> handler = TypeDefinitionCache.getCollectionHandler(streaming ? List.class : clazz);
+		Class<?> actualType = streaming ? Streaming.getComponentType(genericType) : (handler == null ? clazz : handler.getComponentType(genericType));
 		List<Value<?>> values = new ArrayList<Value<?>>(Arrays.asList(possibleValues));
 		// always set minoccurs, by default all values are nullable and can be "optional" as long as they aren't primitive
 		if (!ValueUtils.contains(MinOccursProperty.getInstance(), possibleValues) && !actualType.isPrimitive()) {
@@ -157,12 +196,9 @@ public class MethodServiceInterface implements DefinedServiceInterface {
 			values.add(new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0));
 			values.add(new ValueImpl<CollectionHandlerProvider>(new CollectionHandlerProviderProperty(), handler));
 		}
-		Type type = byte[].class.equals(actualType) ? new Bytes() : definedTypeResolver.resolve(TypeUtils.box(actualType).getName());
+		Type type = byte[].class.equals(actualType) ? new Bytes() : TypeDefinitionCache.getType(definedTypeResolver, actualType);
 		if (type == null) {
-			type = BeanResolver.getInstance().resolve(actualType);
-			if (type == null) {
-				throw new IllegalArgumentException("You are referencing a class that can not be resolved: " + clazz.getName());
-			}
+			throw new IllegalArgumentException("You are referencing a class that can not be resolved: " + clazz.getName());
 		}
 		if (type instanceof SimpleType) {
 			parent.add(new SimpleElementImpl(name, (SimpleType<?>) type, parent, values.toArray(new Value<?>[0])));
@@ -172,6 +208,58 @@ public class MethodServiceInterface implements DefinedServiceInterface {
 		}
 	}
 	
+	/**
+	 * A method is asynchronous if it returns a future or completion stage and is annotated with @AsyncResult, the output then describes the value it completes with.
+	 * This is opt-in because it changes the output of existing services that return a future.
+	 */
+	public static boolean isAsync(Method method) {
+		return !Object.class.equals(method.getReturnType()) && method.getReturnType().isAssignableFrom(CompletableFuture.class) && isAsyncResult(method);
+	}
+	
+	private static boolean isAsyncResult(Method method) {
+		if (method.isAnnotationPresent(AsyncResult.class) || method.getDeclaringClass().isAnnotationPresent(AsyncResult.class)) {
+			return true;
+		}
+		for (Class<?> iface : method.getDeclaringClass().getInterfaces()) {
+			try {
+				if (isAsyncResult(iface.getMethod(method.getName(), method.getParameterTypes()))) {
+					return true;
+				}
+			}
+			catch (NoSuchMethodException e) {
+				// not declared by this interface
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * The generic type of the actual result, for asynchronous methods this is the type parameter of the future
+	 */
+	static java.lang.reflect.Type getResultType(Method method) {
+		if (isAsync(method)) {
+			java.lang.reflect.Type genericReturnType = method.getGenericReturnType();
+			return genericReturnType instanceof ParameterizedType 
+				? ((ParameterizedType) genericReturnType).getActualTypeArguments()[0]
+				: Object.class;
+		}
+		return method.getGenericReturnType();
+	}
+	
+	static Class<?> getResultClass(Method method) {
+		if (isAsync(method)) {
+			java.lang.reflect.Type resultType = getResultType(method);
+			if (resultType instanceof Class) {
+				return (Class<?>) resultType;
+			}
+			else if (resultType instanceof ParameterizedType) {
+				return (Class<?>) ((ParameterizedType) resultType).getRawType();
+			}
+			return Object.class;
+		}
+		return method.getReturnType();
+	}
+	
 	private static String getName(Method method) {
 		return method.getAnnotation(WebMethod.class) != null
 			? method.getAnnotation(WebMethod.class).operationName()
@@ -198,8 +286,10 @@ public class MethodServiceInterface implements DefinedServiceInterface {
 					String name = method.getAnnotation(WebResult.class) != null
 						? method.getAnnotation(WebResult.class).name()
 						: "response";
-					if (!void.class.isAssignableFrom(method.getReturnType())) {
-						addElement(structure, name, method.getReturnType(), method.getGenericReturnType());
+					// for asynchronous methods we describe the eventual result
+					Class<?> resultType = getResultClass(method);
+					if (!void.class.isAssignableFrom(resultType) && !Void.class.isAssignableFrom(resultType)) {
+						addElement(structure, name, resultType, getResultType(method));
 					}
 					output = structure;
 				}
@@ -23,6 +23,10 @@ import javax.xml.bind.annotation.XmlRootElement;
 public class POJOConfiguration {
 	
 	private String className;
+	private BeanScope scope;
+	private Integer poolSize;
+	private Integer maxConcurrent;
+	private Long maxWait;
 
 	public String getClassName() {
 		return className;
@@ -31,4 +35,50 @@ public class POJOConfiguration {
 	public void setClassName(String className) {
 		this.className = className;
 	}
+
+	public BeanScope getScope() {
+		return scope;
+	}
+
+	public void setScope(BeanScope scope) {
+		this.scope = scope;
+	}
+
+	public Integer getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(Integer poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * The maximum amount of concurrent executions of the methods in this class
+	 */
+	public Integer getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	public void setMaxConcurrent(Integer maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	/**
+	 * How long (in milliseconds) a call waits for a permit once the maximum is reached
+	 */
+	public Long getMaxWait() {
+		return maxWait;
+	}
+
+	public void setMaxWait(Long maxWait) {
+		this.maxWait = maxWait;
+	}
+	
+	/**
+	 * Applies both the scope and the concurrency limit to the class, settings that are not filled in are left alone
+	 */
+	public void apply(Class<?> clazz) {
+		BeanLifecycle.configure(clazz, this);
+		Bulkhead.configure(clazz, this);
+	}
 }
@@ -0,0 +1,83 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+/**
+ * The flight recorder events, checking whether an event type is enabled does not allocate so this is done before any event is created.
+ * All events are disabled by default, they can be enabled in the recording settings, e.g. "be.nabu.services.pojo.ServiceExecution#enabled=true"
+ * The flight recorder api is only touched if it is available, on older jvms all events are simply disabled.
+ * Events are passed around as plain objects so the callers never link against the flight recorder classes.
+ */
+final class POJOEvents {
+	
+	private static final boolean AVAILABLE = isAvailable();
+	
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		}
+		catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+	
+	static boolean isServiceExecutionEnabled() {
+		return AVAILABLE && FlightRecorderEvents.isServiceExecutionEnabled();
+	}
+	
+	static boolean isBeanConversionEnabled() {
+		return AVAILABLE && FlightRecorderEvents.isBeanConversionEnabled();
+	}
+	
+	static boolean isProxyDispatchEnabled() {
+		return AVAILABLE && FlightRecorderEvents.isProxyDispatchEnabled();
+	}
+	
+	/**
+	 * The begin methods may only be called once the event type is known to be enabled
+	 */
+	static Object beginServiceExecution(String serviceId, int argumentCount) {
+		return FlightRecorderEvents.beginServiceExecution(serviceId, argumentCount);
+	}
+	
+	static Object beginBeanConversion(String parameter, Class<?> targetType) {
+		return FlightRecorderEvents.beginBeanConversion(parameter, targetType);
+	}
+	
+	static Object beginProxyDispatch(Class<?> javaInterface, String method, String serviceId, boolean async) {
+		return FlightRecorderEvents.beginProxyDispatch(javaInterface, method, serviceId, async);
+	}
+	
+	static void setConversionDuration(Object event, long conversionDuration) {
+		FlightRecorderEvents.setConversionDuration(event, conversionDuration);
+	}
+	
+	static void setConvertedItems(Object event, int convertedItems) {
+		FlightRecorderEvents.setConvertedItems(event, convertedItems);
+	}
+	
+	static void setErrorCode(Object event, String errorCode) {
+		FlightRecorderEvents.setErrorCode(event, errorCode);
+	}
+	
+	static void commit(Object event) {
+		FlightRecorderEvents.commit(event);
+	}
+}
@@ -0,0 +1,123 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the metrics of method services and proxies and registers them as MXBeans on the platform mbean server.
+ * Metrics are disabled by default, they can be enabled with the system property "be.nabu.services.pojo.metrics" or at runtime using setEnabled().
+ * When disabled, nothing is measured or allocated.
+ */
+public class POJOMetrics {
+	
+	public static final String DOMAIN = "be.nabu.libs.services.pojo";
+	
+	private static Logger logger = LoggerFactory.getLogger(POJOMetrics.class);
+	
+	private static volatile boolean enabled = Boolean.parseBoolean(System.getProperty("be.nabu.services.pojo.metrics", "false"));
+	
+	private static Map<ObjectName, ServiceMetrics> metrics = new ConcurrentHashMap<ObjectName, ServiceMetrics>();
+	
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	public static void setEnabled(boolean enabled) {
+		POJOMetrics.enabled = enabled;
+	}
+	
+	/**
+	 * The metrics of a method service, registered as type=Service
+	 */
+	public static ServiceMetrics getServiceMetrics(String id) {
+		return getMetrics("Service", id);
+	}
+	
+	/**
+	 * The metrics of a proxied java method, registered as type=Proxy
+	 */
+	public static ServiceMetrics getProxyMetrics(String id) {
+		return getMetrics("Proxy", id);
+	}
+	
+	public static Collection<ServiceMetrics> getMetrics() {
+		return new ArrayList<ServiceMetrics>(metrics.values());
+	}
+	
+	/**
+	 * Unregisters all the metrics, services and proxies that already have their metrics keep updating them but they are no longer visible
+	 */
+	public static void clear() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : new ArrayList<ObjectName>(metrics.keySet())) {
+			metrics.remove(name);
+			try {
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+			}
+			catch (Exception e) {
+				logger.warn("Could not unregister metrics: " + name, e);
+			}
+		}
+	}
+	
+	private static ServiceMetrics getMetrics(String type, String id) {
+		ObjectName name;
+		try {
+			name = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(id));
+		}
+		catch (Exception e) {
+			throw new IllegalArgumentException("Invalid metrics id: " + id, e);
+		}
+		ServiceMetrics serviceMetrics = metrics.get(name);
+		if (serviceMetrics == null) {
+			synchronized(metrics) {
+				serviceMetrics = metrics.get(name);
+				if (serviceMetrics == null) {
+					serviceMetrics = new ServiceMetrics(id);
+					try {
+						MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+						if (server.isRegistered(name)) {
+							server.unregisterMBean(name);
+						}
+						server.registerMBean(serviceMetrics, name);
+					}
+					// the metrics are still collected, they are just not visible over jmx
+					catch (Exception e) {
+						logger.warn("Could not register metrics: " + name, e);
+					}
+					metrics.put(name, serviceMetrics);
+				}
+			}
+		}
+		return serviceMetrics;
+	}
+}
@@ -15,29 +15,76 @@
 * along with this program. If not, see <https://www.gnu.org/licenses/>.
 */
 
+
 package be.nabu.libs.services.pojo;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import be.nabu.libs.services.api.DefinedService;
 import be.nabu.libs.services.api.DefinedServiceResolver;
 import be.nabu.libs.types.DefinedTypeResolverFactory;
 
+/**
+ * Resolves public instance methods as services, both hits and misses are cached.
+ * If classes are redeployed, the cache should be invalidated for the classloader that is being replaced.
+ */
 public class POJOResolver implements DefinedServiceResolver {
 
+	private ClassLoader loader;
+	
+	private Map<String, MethodService> services = new ConcurrentHashMap<String, MethodService>();
+	
+	/**
+	 * Ids that are not pojo services, this is bounded because anything passing through a resolver chain can end up here.
+	 * Once it is full it is cleared as a whole, the misses that matter will quickly be cached again.
+	 */
+	private Map<String, Boolean> misses = new ConcurrentHashMap<String, Boolean>();
+	private int maxMisses;
+	
+	private LongAdder hitCount = new LongAdder(), missCount = new LongAdder(), negativeHitCount = new LongAdder();
+
+	public POJOResolver(ClassLoader loader, int maxMisses) {
+		this.loader = loader;
+		this.maxMisses = maxMisses;
+	}
+	
+	public POJOResolver(ClassLoader loader) {
+		this(loader, 1000);
+	}
+	
+	public POJOResolver() {
+		this(null);
+	}
+	
 	@Override
 	public DefinedService resolve(String id) {
+		MethodService service = services.get(id);
+		if (service != null) {
+			hitCount.increment();
+			return service;
+		}
+		if (misses.containsKey(id)) {
+			negativeHitCount.increment();
+			return null;
+		}
+		missCount.increment();
 		// the last part of the id is the method
 		int index = id.lastIndexOf('.');
 		if (index >= 0) {
 			String className = id.substring(0, index);
 			String methodName = id.substring(index + 1);
 			try {
-				Class<?> clazz = Class.forName(className);
+				Class<?> clazz = loader == null ? Class.forName(className) : Class.forName(className, true, loader);
 				for (Method method : clazz.getDeclaredMethods()) {
 					if (Modifier.isPublic(method.getModifiers()) && !Modifier.isStatic(method.getModifiers()) && method.getName().equals(methodName)) {
-						return new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), clazz, method);
+						service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), clazz, method);
+						MethodService existing = services.putIfAbsent(id, service);
+						return existing == null ? service : existing;
 					}
 				}
 			}
@@ -46,7 +93,81 @@ public class POJOResolver implements DefinedServiceResolver {
 				// do nothing
 			}
 		}
+		if (misses.size() >= maxMisses) {
+			misses.clear();
+		}
+		misses.put(id, true);
 		return null;
 	}
 
+	/**
+	 * Removes all cached services and misses
+	 */
+	public void invalidate() {
+		services.clear();
+		misses.clear();
+	}
+	
+	public void invalidate(String id) {
+		services.remove(id);
+		misses.remove(id);
+	}
+	
+	/**
+	 * Removes all the services that were loaded by the given classloader (or one of its children).
+	 * Because the classloader might also make new classes visible, all misses are removed as well.
+	 */
+	public void invalidate(ClassLoader loader) {
+		Iterator<MethodService> iterator = services.values().iterator();
+		while (iterator.hasNext()) {
+			if (isLoadedBy(iterator.next().getSourceClass(), loader)) {
+				iterator.remove();
+			}
+		}
+		misses.clear();
+	}
+	
+	ClassLoader getLoader() {
+		return loader;
+	}
+	
+	static boolean isLoadedBy(Class<?> clazz, ClassLoader loader) {
+		ClassLoader classLoader = clazz.getClassLoader();
+		while (classLoader != null) {
+			if (classLoader.equals(loader)) {
+				return true;
+			}
+			classLoader = classLoader.getParent();
+		}
+		return false;
+	}
+	
+	/**
+	 * The amount of resolves that were answered with a cached service
+	 */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+	
+	/**
+	 * The amount of resolves that had to look up the class
+	 */
+	public long getMissCount() {
+		return missCount.sum();
+	}
+	
+	/**
+	 * The amount of resolves that were answered from the cached misses
+	 */
+	public long getNegativeHitCount() {
+		return negativeHitCount.sum();
+	}
+	
+	public int getCachedServices() {
+		return services.size();
+	}
+	
+	public int getCachedMisses() {
+		return misses.size();
+	}
 }
@@ -26,7 +26,20 @@ import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,10 +50,10 @@ import be.nabu.libs.services.api.DefinedService;
 import be.nabu.libs.services.api.ExecutionContext;
 import be.nabu.libs.services.api.ExecutionContextProvider;
 import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceException;
 import be.nabu.libs.services.api.ServiceInterface;
 import be.nabu.libs.services.api.ServiceResult;
 import be.nabu.libs.services.api.ServiceRunner;
-import be.nabu.libs.types.TypeUtils;
 import be.nabu.libs.types.api.ComplexContent;
 import be.nabu.libs.types.api.Element;
 import be.nabu.libs.types.base.ListCollectionHandlerProvider;
@@ -55,6 +68,11 @@ public class POJOUtils {
 		
 		// you can set an explicit service runner for e.g. remote execution
 		private ServiceRunner runner;
+		
+		/**
+		 * The resolved dispatch per java method, this is built on the first call of each method
+		 */
+		private Map<Method, Dispatch> dispatches = new ConcurrentHashMap<Method, Dispatch>();
 
 		private ServiceInvocationHandler(Class<T> javaInterface, ExecutionContextProvider executionContextProvider, Token token, Service...services) {
 			this(javaInterface, executionContextProvider, token, null, services);
@@ -68,70 +86,36 @@ public class POJOUtils {
 			this.services = services;
 		}
 
-		@SuppressWarnings({ "rawtypes", "unchecked" })
-		@Override
-		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-			for (Service service : services) {
-				if (service == null) {
-					continue;
-				}
+		Dispatch getDispatch(Method method) {
+			Dispatch dispatch = dispatches.get(method);
+			if (dispatch == null) {
 				MethodServiceInterface iface = MethodServiceInterface.wrap(method);
-				logger.debug("Checking service '" + service + "' for interface: " + iface);
-				if (!isImplementation(service, iface)) {
-					continue;
-				}
-				ComplexContent input = iface.getInputDefinition().newInstance();
-				int i = 0;
-				for (Element<?> element : iface.getInputDefinition()) {
-					input.set(element.getName(), args[i++]);
-				}
-				
-				if (service instanceof DefinedService) {
-					logger.debug("Executing service '{}' using java interface '{}'", ((DefinedService) service).getId(), javaInterface.getName());
-				}
-				
-				ExecutionContext context;
-				if (ServiceRuntime.getRuntime() != null) {
-					context = ServiceRuntime.getRuntime().getExecutionContext();
-				}
-				else if (executionContextProvider == null) {
-					throw new IllegalArgumentException("There is no service context available and no context provider was passed along");
-				}
-				else {
-					context = executionContextProvider.newExecutionContext(token);
-				}
-				ComplexContent output;
-				if (runner != null) {
-					Future<ServiceResult> run = runner.run(service, context, input);
-					output = run.get().getOutput();
-				}
-				else {
-					ServiceRuntime serviceRuntime = new ServiceRuntime(service, context);
-					output = serviceRuntime.run(input);
-				}
-				if (void.class.isAssignableFrom(method.getReturnType()) || Void.class.isAssignableFrom(method.getReturnType()) || output == null) {
-					return null;
-				}
-				else {
-					Object returnValue = output.get(iface.getOutputDefinition().iterator().next().getName());
-					if (returnValue == null) {
-						return null;
-					}
-					else if (returnValue instanceof ComplexContent && !method.getReturnType().isAssignableFrom(returnValue.getClass())) {
-						return TypeUtils.getAsBean((ComplexContent) returnValue, method.getReturnType());
-					}
-					else if (returnValue instanceof Collection) {
-						Class<?> componentType = new ListCollectionHandlerProvider().getComponentType(method.getGenericReturnType());
-						List list = new ArrayList();
-						for (Object child : (Collection) returnValue) {
-							list.add(child instanceof ComplexContent ? TypeUtils.getAsBean((ComplexContent) child, componentType) : child);
-						}
-						return list;
+				Service implementation = null;
+				for (Service service : services) {
+					if (service == null) {
+						continue;
 					}
-					else {
-						return returnValue;
+					logger.debug("Checking service '{}' for interface: {}", service, iface);
+					if (isImplementation(service, iface)) {
+						implementation = service;
+						break;
 					}
 				}
+				dispatch = new Dispatch(method, iface, implementation);
+				dispatches.put(method, dispatch);
+			}
+			return dispatch;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Dispatch dispatch = getDispatch(method);
+			if (dispatch.service != null) {
+				ComplexContent input = dispatch.iface.getInputDefinition().newInstance();
+				for (int i = 0; i < dispatch.inputNames.length; i++) {
+					input.set(dispatch.inputNames[i], args[i]);
+				}
+				return execute(dispatch, input);
 			}
 			if (method.isDefault()) {
 				Method invokeDefault = getInvokeDefault();
@@ -160,6 +144,198 @@ public class POJOUtils {
 			throw new IllegalStateException("No service found that implements the method: " + method);
 		}
 
+		Object execute(Dispatch dispatch, ComplexContent input) throws Throwable {
+			if (!POJOEvents.isProxyDispatchEnabled()) {
+				return dispatch(dispatch, input);
+			}
+			Object event = POJOEvents.beginProxyDispatch(javaInterface, dispatch.method.getName(), dispatch.serviceId, dispatch.async);
+			try {
+				return dispatch(dispatch, input);
+			}
+			catch (Throwable e) {
+				POJOEvents.setErrorCode(event, getErrorCode(e));
+				throw e;
+			}
+			finally {
+				POJOEvents.commit(event);
+			}
+		}
+		
+		private Object dispatch(Dispatch dispatch, ComplexContent input) throws Throwable {
+			if (dispatch.serviceId != null) {
+				logger.debug("Executing service '{}' using java interface '{}'", dispatch.serviceId, javaInterface.getName());
+			}
+			
+			ExecutionContext context;
+			if (ServiceRuntime.getRuntime() != null) {
+				context = ServiceRuntime.getRuntime().getExecutionContext();
+			}
+			else if (executionContextProvider == null) {
+				throw new IllegalArgumentException("There is no service context available and no context provider was passed along");
+			}
+			else {
+				context = executionContextProvider.newExecutionContext(token);
+			}
+			if (dispatch.async) {
+				return executeAsync(dispatch, context, input);
+			}
+			ServiceMetrics metrics = POJOMetrics.isEnabled() ? dispatch.getMetrics() : null;
+			long started = metrics == null ? 0 : System.nanoTime();
+			try {
+				ComplexContent output;
+				if (runner != null) {
+					ServiceResult serviceResult = runner.run(dispatch.service, context, input).get();
+					if (serviceResult.getException() != null) {
+						throw serviceResult.getException();
+					}
+					output = serviceResult.getOutput();
+				}
+				else {
+					ServiceRuntime serviceRuntime = new ServiceRuntime(dispatch.service, context);
+					output = serviceRuntime.run(input);
+				}
+				long executed = metrics == null ? 0 : System.nanoTime();
+				Object result = getResult(dispatch, output);
+				if (metrics != null) {
+					metrics.record(0, executed - started, System.nanoTime() - executed);
+				}
+				return result;
+			}
+			catch (Throwable e) {
+				if (metrics != null) {
+					metrics.error(getErrorCode(e));
+				}
+				throw e;
+			}
+		}
+		
+		private String getErrorCode(Throwable throwable) {
+			if (throwable instanceof ExecutionException && throwable.getCause() != null) {
+				throwable = throwable.getCause();
+			}
+			return throwable instanceof ServiceException ? ((ServiceException) throwable).getCode() : throwable.getClass().getName();
+		}
+		
+		/**
+		 * The caller gets a future immediately, the output is converted when the service is done.
+		 * If the runner already returns a completion stage, no thread is blocked at all, otherwise the wait is moved to the async executor.
+		 * Without a runner the service itself is run on the async executor.
+		 */
+		private CompletableFuture<Object> executeAsync(final Dispatch dispatch, final ExecutionContext context, final ComplexContent input) {
+			final ServiceMetrics metrics = POJOMetrics.isEnabled() ? dispatch.getMetrics() : null;
+			final long started = metrics == null ? 0 : System.nanoTime();
+			if (runner == null) {
+				return CompletableFuture.supplyAsync(new Supplier<Object>() {
+					@Override
+					public Object get() {
+						try {
+							ComplexContent output = new ServiceRuntime(dispatch.service, context).run(input);
+							long executed = metrics == null ? 0 : System.nanoTime();
+							Object returnValue = getResult(dispatch, output);
+							if (metrics != null) {
+								metrics.record(0, executed - started, System.nanoTime() - executed);
+							}
+							return returnValue;
+						}
+						catch (Exception e) {
+							if (metrics != null) {
+								metrics.error(getErrorCode(e));
+							}
+							throw e instanceof RuntimeException ? (RuntimeException) e : new CompletionException(e);
+						}
+					}
+				}, getAsyncExecutor());
+			}
+			final Future<ServiceResult> run = runner.run(dispatch.service, context, input);
+			CompletableFuture<ServiceResult> result;
+			if (run instanceof CompletionStage) {
+				@SuppressWarnings("unchecked")
+				CompletionStage<ServiceResult> stage = (CompletionStage<ServiceResult>) run;
+				result = stage.toCompletableFuture();
+			}
+			else if (run.isDone()) {
+				result = new CompletableFuture<ServiceResult>();
+				try {
+					result.complete(run.get());
+				}
+				catch (ExecutionException e) {
+					result.completeExceptionally(e.getCause());
+				}
+				catch (Throwable e) {
+					result.completeExceptionally(e);
+				}
+			}
+			else {
+				result = CompletableFuture.supplyAsync(new Supplier<ServiceResult>() {
+					@Override
+					public ServiceResult get() {
+						try {
+							return await(run);
+						}
+						catch (ExecutionException e) {
+							throw new CompletionException(e.getCause());
+						}
+						catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new CompletionException(e);
+						}
+					}
+				}, getAsyncExecutor());
+			}
+			return result.thenApply(new Function<ServiceResult, Object>() {
+				@Override
+				public Object apply(ServiceResult serviceResult) {
+					if (serviceResult.getException() != null) {
+						if (metrics != null) {
+							metrics.error(getErrorCode(serviceResult.getException()));
+						}
+						throw new CompletionException(serviceResult.getException());
+					}
+					long executed = metrics == null ? 0 : System.nanoTime();
+					Object returnValue = getResult(dispatch, serviceResult.getOutput());
+					if (metrics != null) {
+						metrics.record(0, executed - started, System.nanoTime() - executed);
+					}
+					return returnValue;
+				}
+			});
+		}
+		
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private Object getResult(Dispatch dispatch, ComplexContent output) {
+			if (dispatch.outputName == null || output == null) {
+				return null;
+			}
+			else {
+				Object returnValue = output.get(dispatch.outputName);
+				if (returnValue == null) {
+					return null;
+				}
+				else if (returnValue instanceof ComplexContent && !dispatch.resultClass.isAssignableFrom(returnValue.getClass())) {
+					return BeanMapper.getAsBean((ComplexContent) returnValue, dispatch.resultClass);
+				}
+				// streaming results are converted as they are consumed rather than copied
+				else if (dispatch.isStreaming()) {
+					return dispatch.getResultBinding().stream(returnValue);
+				}
+				// lists are converted as they are read rather than copied, the view copies itself on the first modification
+				else if (returnValue instanceof List && returnValue instanceof RandomAccess && dispatch.resultClass.isAssignableFrom(List.class)) {
+					return Streaming.toBeans((List) returnValue, dispatch.getComponentType());
+				}
+				else if (returnValue instanceof Collection) {
+					Class<?> componentType = dispatch.getComponentType();
+					List list = new ArrayList();
+					for (Object child : (Collection) returnValue) {
+						list.add(child instanceof ComplexContent ? BeanMapper.getAsBean((ComplexContent) child, componentType) : child);
+					}
+					return list;
+				}
+				else {
+					return returnValue;
+				}
+			}
+		}
+
 		public Token getToken() {
 			return token;
 		}
@@ -174,6 +350,80 @@ public class POJOUtils {
 		
 	}
 
+	/**
+	 * Everything we need to call a service for a given java method
+	 */
+	static final class Dispatch {
+		final Method method;
+		final MethodServiceInterface iface;
+		final Service service;
+		final String serviceId;
+		final String[] inputNames;
+		/**
+		 * This is null if there is no output to return
+		 */
+		final String outputName;
+		/**
+		 * Asynchronous methods return a future of the result class
+		 */
+		final boolean async;
+		final Class<?> resultClass;
+		private volatile Class<?> componentType;
+		private volatile ArgumentBinding resultBinding;
+		private volatile ServiceMetrics metrics;
+		
+		private Dispatch(Method method, MethodServiceInterface iface, Service service) {
+			this.method = method;
+			this.iface = iface;
+			this.service = service;
+			this.serviceId = service instanceof DefinedService ? ((DefinedService) service).getId() : null;
+			this.async = MethodServiceInterface.isAsync(method);
+			this.resultClass = MethodServiceInterface.getResultClass(method);
+			if (service == null) {
+				this.inputNames = new String[0];
+				this.outputName = null;
+			}
+			else {
+				List<String> inputNames = new ArrayList<String>();
+				for (Element<?> element : iface.getInputDefinition()) {
+					inputNames.add(element.getName());
+				}
+				this.inputNames = inputNames.toArray(new String[inputNames.size()]);
+				this.outputName = void.class.isAssignableFrom(resultClass) || Void.class.isAssignableFrom(resultClass) 
+					? null 
+					: iface.getOutputDefinition().iterator().next().getName();
+			}
+		}
+		
+		ServiceMetrics getMetrics() {
+			if (metrics == null) {
+				metrics = POJOMetrics.getProxyMetrics(method.getDeclaringClass().getName() + "." + method.getName());
+			}
+			return metrics;
+		}
+		
+		private boolean isStreaming() {
+			return Streaming.isStreaming(resultClass);
+		}
+		
+		/**
+		 * Streaming results get the same lazy conversion as streaming parameters
+		 */
+		private ArgumentBinding getResultBinding() {
+			if (resultBinding == null) {
+				resultBinding = new ArgumentBinding(resultClass, MethodServiceInterface.getResultType(method));
+			}
+			return resultBinding;
+		}
+		
+		private Class<?> getComponentType() {
+			if (componentType == null) {
+				componentType = new ListCollectionHandlerProvider().getComponentType(MethodServiceInterface.getResultType(method));
+			}
+			return componentType;
+		}
+	}
+	
 	private static Logger logger = LoggerFactory.getLogger(POJOUtils.class);
 	
 	// the java 16 invoke default method (if found)
@@ -202,6 +452,108 @@ public class POJOUtils {
 		return invokeDefault;
 	}
 	
+	/**
+	 * Whether newProxy() should generate a concrete class per interface instead of using java.lang.reflect.Proxy
+	 */
+	private static volatile boolean generateProxies = Boolean.parseBoolean(System.getProperty("be.nabu.services.pojo.generateProxies", "false"));
+	
+	public static boolean isGenerateProxies() {
+		return generateProxies;
+	}
+
+	public static void setGenerateProxies(boolean generateProxies) {
+		POJOUtils.generateProxies = generateProxies;
+	}
+	
+	/**
+	 * The parallelism of the default async executor, by default the amount of processors (with a minimum of 2)
+	 */
+	private static int asyncThreads = Integer.parseInt(System.getProperty("be.nabu.services.pojo.asyncThreads", "" + Math.max(2, Runtime.getRuntime().availableProcessors())));
+	
+	/**
+	 * Runs asynchronous proxy calls without a runner and waits for runners that do not return a completion stage.
+	 * By default this is a fork join pool of daemon threads: when a thread blocks on a completable future (for example a nested asynchronous call) or on the result of a runner, the pool adds a spare thread so it can not run out.
+	 * Services that block on I/O do not get a spare thread, pass a runner for those.
+	 */
+	private static volatile Executor asyncExecutor;
+	
+	public static Executor getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			synchronized(POJOUtils.class) {
+				if (asyncExecutor == null) {
+					asyncExecutor = new ForkJoinPool(asyncThreads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+						private AtomicInteger counter = new AtomicInteger();
+						@Override
+						public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+							ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+							thread.setName("pojo-async-" + counter.incrementAndGet());
+							return thread;
+						}
+					}, null, true);
+				}
+			}
+		}
+		return asyncExecutor;
+	}
+	
+	/**
+	 * Waits for a future that is not a completion stage, on a fork join pool a spare thread takes over while we wait
+	 */
+	static <T> T await(final Future<T> future) throws InterruptedException, ExecutionException {
+		if (!future.isDone()) {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					try {
+						future.get();
+					}
+					catch (ExecutionException e) {
+						// reported by the get() below
+					}
+					return true;
+				}
+				@Override
+				public boolean isReleasable() {
+					return future.isDone();
+				}
+			});
+		}
+		return future.get();
+	}
+
+	public static void setAsyncExecutor(Executor asyncExecutor) {
+		POJOUtils.asyncExecutor = asyncExecutor;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> T newProxy(Class<T> javaInterface, ServiceInvocationHandler<T> handler) {
+		if (generateProxies) {
+			T proxy = ProxyGenerator.newProxy(javaInterface, handler);
+			if (proxy != null) {
+				return proxy;
+			}
+		}
+		return (T) Proxy.newProxyInstance(javaInterface.getClassLoader(), new Class [] { javaInterface }, handler);
+	}
+	
+	/**
+	 * Returns the handler behind a proxy created by newProxy(), regardless of how the proxy was created
+	 */
+	public static ServiceInvocationHandler<?> getInvocationHandler(Object proxy) {
+		if (proxy instanceof GeneratedProxy) {
+			return ((GeneratedProxy) proxy).getInvocationHandler();
+		}
+		else if (Proxy.isProxyClass(proxy.getClass()) && Proxy.getInvocationHandler(proxy) instanceof ServiceInvocationHandler) {
+			return (ServiceInvocationHandler<?>) Proxy.getInvocationHandler(proxy);
+		}
+		return null;
+	}
+	
+	@SuppressWarnings("unchecked")
+	static <T extends Throwable> T sneakyThrow(Throwable throwable) throws T {
+		throw (T) throwable;
+	}
+	
 	public static <T> T newProxy(final Class<T> javaInterface, final Service service, final ExecutionContext fixedContext) {
 		return newProxy(javaInterface, service, new ExecutionContextProvider() {
 			@Override
@@ -215,19 +567,16 @@ public class POJOUtils {
 		return newProxy(javaInterface, service, null, null);
 	}
 	
-	@SuppressWarnings("unchecked")
 	public static <T> T newProxy(final Class<T> javaInterface, final ExecutionContextProvider executionContextProvider, final Token token, final Service...services) {
-		return (T) Proxy.newProxyInstance(javaInterface.getClassLoader(), new Class [] { javaInterface }, new ServiceInvocationHandler<T>(javaInterface, executionContextProvider, token, services));
+		return newProxy(javaInterface, new ServiceInvocationHandler<T>(javaInterface, executionContextProvider, token, services));
 	}
 	
-	@SuppressWarnings("unchecked")
 	public static <T> T newProxy(final Class<T> javaInterface, final ExecutionContextProvider executionContextProvider, final Token token, final ServiceRunner runner, final Service...services) {
-		return (T) Proxy.newProxyInstance(javaInterface.getClassLoader(), new Class [] { javaInterface }, new ServiceInvocationHandler<T>(javaInterface, executionContextProvider, token, runner, services));
+		return newProxy(javaInterface, new ServiceInvocationHandler<T>(javaInterface, executionContextProvider, token, runner, services));
 	}
 	
-	@SuppressWarnings("unchecked")
 	public static <T> T newProxy(final Class<T> javaInterface, final Service service, final ExecutionContextProvider executionContextProvider, final Token token) {
-		return (T) Proxy.newProxyInstance(javaInterface.getClassLoader(), new Class [] { javaInterface }, new ServiceInvocationHandler<T>(javaInterface, executionContextProvider, token, service));
+		return newProxy(javaInterface, new ServiceInvocationHandler<T>(javaInterface, executionContextProvider, token, service));
 	}
 	
 	public static boolean isImplementation(Service service, ServiceInterface iface) {
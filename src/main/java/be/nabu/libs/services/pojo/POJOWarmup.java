@@ -0,0 +1,245 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.services.DefinedServiceResolverFactory;
+import be.nabu.libs.services.api.DefinedService;
+import be.nabu.libs.services.api.DefinedServiceResolver;
+import be.nabu.libs.types.api.ComplexType;
+
+/**
+ * Resolves the services of a set of classes up front so the first call does not pay for type resolution and bean introspection.
+ * The services are warmed up in parallel on a fork join pool and end up in the cache of the given resolver.
+ * Unless disabled, they are also resolved through the resolver of the {@link DefinedServiceResolverFactory} so lookups that go through the factory are warm as well.
+ */
+public class POJOWarmup {
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private POJOResolver resolver;
+	private ForkJoinPool pool;
+	/**
+	 * Whether the invokers should be built as well
+	 */
+	private boolean warmInvokers = true;
+	/**
+	 * Whether the services should also be warmed up in the resolver of the factory
+	 */
+	private boolean warmFactory = true;
+	
+	public POJOWarmup(POJOResolver resolver) {
+		this(resolver, ForkJoinPool.commonPool());
+	}
+	
+	public POJOWarmup(POJOResolver resolver, ForkJoinPool pool) {
+		this.resolver = resolver;
+		this.pool = pool;
+	}
+	
+	public WarmupReport warmup(Collection<Class<?>> classes) {
+		return warmup(classes, new WarmupReport());
+	}
+	
+	public WarmupReport warmup(List<POJOConfiguration> configurations) {
+		WarmupReport report = new WarmupReport();
+		Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+		for (POJOConfiguration configuration : configurations) {
+			try {
+				classes.add(load(configuration.getClassName()));
+			}
+			catch (ClassNotFoundException | LinkageError e) {
+				report.failure(configuration.getClassName(), e);
+			}
+		}
+		return warmup(classes, report);
+	}
+	
+	/**
+	 * Warms up all the concrete public classes in the package and its subpackages, nested classes are not included
+	 */
+	public WarmupReport warmupPackage(String packageName) throws IOException {
+		WarmupReport report = new WarmupReport();
+		Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+		for (String className : findClasses(packageName)) {
+			try {
+				Class<?> clazz = load(className);
+				if (Modifier.isPublic(clazz.getModifiers()) && !Modifier.isAbstract(clazz.getModifiers()) && !clazz.isEnum()) {
+					classes.add(clazz);
+				}
+			}
+			catch (ClassNotFoundException | LinkageError e) {
+				report.failure(className, e);
+			}
+		}
+		return warmup(classes, report);
+	}
+	
+	private WarmupReport warmup(Collection<Class<?>> classes, final WarmupReport report) {
+		long started = System.nanoTime();
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for (Class<?> clazz : classes) {
+			// the same rules as the resolver, the first public method with a name is the service
+			Set<String> names = new LinkedHashSet<String>();
+			for (Method method : clazz.getDeclaredMethods()) {
+				if (Modifier.isPublic(method.getModifiers()) && !Modifier.isStatic(method.getModifiers()) && !method.isSynthetic()) {
+					names.add(method.getName());
+				}
+			}
+			for (String name : names) {
+				final String id = clazz.getName() + "." + name;
+				tasks.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						warmup(id, report);
+					}
+				}));
+			}
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+		report.setDuration(System.nanoTime() - started);
+		logger.info(report.toString());
+		return report;
+	}
+	
+	private void warmup(String id, WarmupReport report) {
+		long started = System.nanoTime();
+		try {
+			MethodService service = (MethodService) resolver.resolve(id);
+			if (service == null) {
+				throw new IllegalStateException("Could not resolve service: " + id);
+			}
+			warmup(service);
+			if (warmFactory) {
+				DefinedServiceResolver factory = DefinedServiceResolverFactory.getInstance().getResolver();
+				if (factory != null && factory != resolver) {
+					DefinedService other = factory.resolve(id);
+					// the factory may resolve it to something else, we only warm up our own services
+					if (other instanceof MethodService && other != service) {
+						warmup((MethodService) other);
+					}
+				}
+			}
+			report.success(id, System.nanoTime() - started);
+		}
+		catch (RuntimeException | LinkageError e) {
+			logger.warn("Could not warm up service: " + id, e);
+			report.failure(id, e);
+		}
+	}
+	
+	private void warmup(MethodService service) {
+		ComplexType input = service.getServiceInterface().getInputDefinition();
+		service.getServiceInterface().getOutputDefinition();
+		service.getBindings();
+		service.getInputNames(input);
+		service.getOutputName();
+		if (warmInvokers) {
+			service.getInvoker();
+		}
+	}
+	
+	private Class<?> load(String className) throws ClassNotFoundException {
+		ClassLoader loader = resolver.getLoader();
+		return loader == null ? Class.forName(className) : Class.forName(className, true, loader);
+	}
+	
+	private List<String> findClasses(String packageName) throws IOException {
+		ClassLoader loader = resolver.getLoader() == null ? getClass().getClassLoader() : resolver.getLoader();
+		String path = packageName.replace('.', '/');
+		List<String> classes = new ArrayList<String>();
+		Enumeration<URL> resources = loader.getResources(path);
+		while (resources.hasMoreElements()) {
+			URL url = resources.nextElement();
+			if ("file".equals(url.getProtocol())) {
+				try {
+					findClasses(new File(url.toURI()), packageName, classes);
+				}
+				catch (URISyntaxException e) {
+					throw new IOException("Can not scan package '" + packageName + "' in: " + url, e);
+				}
+			}
+			else if ("jar".equals(url.getProtocol())) {
+				JarFile jar = ((JarURLConnection) url.openConnection()).getJarFile();
+				Enumeration<JarEntry> entries = jar.entries();
+				while (entries.hasMoreElements()) {
+					String name = entries.nextElement().getName();
+					if (name.startsWith(path + "/") && name.endsWith(".class") && !name.contains("$")) {
+						classes.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+					}
+				}
+			}
+			else {
+				logger.warn("Can not scan package '{}' in: {}", packageName, url);
+			}
+		}
+		return classes;
+	}
+	
+	private void findClasses(File directory, String packageName, List<String> classes) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					findClasses(file, packageName + "." + file.getName(), classes);
+				}
+				else if (file.getName().endsWith(".class") && !file.getName().contains("$")) {
+					classes.add(packageName + "." + file.getName().substring(0, file.getName().length() - ".class".length()));
+				}
+			}
+		}
+	}
+
+	public boolean isWarmInvokers() {
+		return warmInvokers;
+	}
+
+	public void setWarmInvokers(boolean warmInvokers) {
+		this.warmInvokers = warmInvokers;
+	}
+
+	public boolean isWarmFactory() {
+		return warmFactory;
+	}
+
+	public void setWarmFactory(boolean warmFactory) {
+		this.warmFactory = warmFactory;
+	}
+}
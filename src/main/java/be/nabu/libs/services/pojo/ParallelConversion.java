@@ -0,0 +1,57 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Collection arguments with at least the threshold amount of items are converted in parallel chunks, the order of the items is preserved.
+ * The threshold can be set with the system property "be.nabu.services.pojo.parallelConversionThreshold", zero or less disables parallel conversion.
+ */
+public class ParallelConversion {
+	
+	private static volatile int threshold = Integer.parseInt(System.getProperty("be.nabu.services.pojo.parallelConversionThreshold", "10000"));
+	
+	/**
+	 * The pool used for the conversion, by default the common pool
+	 */
+	private static volatile ForkJoinPool pool;
+	
+	public static int getThreshold() {
+		return threshold;
+	}
+	
+	public static void setThreshold(int threshold) {
+		ParallelConversion.threshold = threshold;
+	}
+	
+	public static boolean isParallel(int size) {
+		int threshold = ParallelConversion.threshold;
+		return threshold > 0 && size >= threshold;
+	}
+	
+	public static ForkJoinPool getPool() {
+		ForkJoinPool pool = ParallelConversion.pool;
+		return pool == null ? ForkJoinPool.commonPool() : pool;
+	}
+	
+	public static void setPool(ForkJoinPool pool) {
+		ParallelConversion.pool = pool;
+	}
+}
@@ -0,0 +1,623 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.services.pojo.POJOUtils.ServiceInvocationHandler;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.Element;
+
+/**
+ * Generates a concrete class per java interface that extends GeneratedProxy.
+ * Each method copies its arguments into the service input and unwraps the result without going through an Object[] and reflective dispatch.
+ * The class file is written by hand (java 8 format) and defined in a dedicated classloader so it can be collected together with the interface.
+ */
+class ProxyGenerator {
+
+	private static final String SUPER_CLASS = "be/nabu/libs/services/pojo/GeneratedProxy";
+	private static final String HANDLER_DESCRIPTOR = "Lbe/nabu/libs/services/pojo/POJOUtils$ServiceInvocationHandler;";
+	private static final String CONTENT_DESCRIPTOR = "Lbe/nabu/libs/types/api/ComplexContent;";
+	private static final String CONSTRUCTOR_DESCRIPTOR = "(" + HANDLER_DESCRIPTOR + "[Ljava/lang/reflect/Method;)V";
+	
+	private static Logger logger = LoggerFactory.getLogger(ProxyGenerator.class);
+	private static AtomicLong counter = new AtomicLong();
+	
+	private static ClassValue<ProxyClass> proxyClasses = new ClassValue<ProxyClass>() {
+		@Override
+		protected ProxyClass computeValue(Class<?> type) {
+			try {
+				return generate(type);
+			}
+			catch (Exception | LinkageError e) {
+				logger.warn("Could not generate proxy class for {}, falling back to java.lang.reflect.Proxy", type, e);
+				return new ProxyClass(null, null);
+			}
+		}
+	};
+	
+	/**
+	 * Returns null if no proxy class can be generated for this interface
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T newProxy(Class<T> javaInterface, ServiceInvocationHandler<T> handler) {
+		ProxyClass proxyClass = proxyClasses.get(javaInterface);
+		if (proxyClass.constructor == null) {
+			return null;
+		}
+		try {
+			return (T) proxyClass.constructor.newInstance(handler, proxyClass.methods);
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Could not instantiate generated proxy for " + javaInterface, e);
+		}
+	}
+	
+	private static final class ProxyClass {
+		private final Constructor<?> constructor;
+		private final Method[] methods;
+		
+		private ProxyClass(Constructor<?> constructor, Method[] methods) {
+			this.constructor = constructor;
+			this.methods = methods;
+		}
+	}
+	
+	private static ProxyClass generate(Class<?> javaInterface) throws IOException, ReflectiveOperationException {
+		List<Method> methods = getMethods(javaInterface);
+		if (methods == null) {
+			return new ProxyClass(null, null);
+		}
+		String className = "be.nabu.libs.services.pojo.generated." + javaInterface.getName().replace('.', '_').replace('$', '_') + "$Proxy" + counter.incrementAndGet();
+		Class<?> generated = define(javaInterface, className, write(className, javaInterface, methods));
+		return new ProxyClass(generated.getConstructor(ServiceInvocationHandler.class, Method[].class), methods.toArray(new Method[methods.size()]));
+	}
+	
+	/**
+	 * The methods the proxy class implements, in the order they are indexed, or null if no proxy class can be generated for this interface
+	 */
+	static List<Method> getMethods(Class<?> javaInterface) {
+		// the generated class lives in another classloader so it can only see public types
+		if (!javaInterface.isInterface() || !Modifier.isPublic(javaInterface.getModifiers())) {
+			return null;
+		}
+		List<Method> methods = new ArrayList<Method>();
+		Set<String> signatures = new LinkedHashSet<String>();
+		for (Method method : javaInterface.getMethods()) {
+			if (Modifier.isStatic(method.getModifiers())) {
+				continue;
+			}
+			if (!isAccessible(method.getReturnType())) {
+				return null;
+			}
+			// the generated class would override (or clash with) the methods it relies on
+			if (isReserved(method)) {
+				return null;
+			}
+			if (signatures.add(method.getName() + getDescriptor(method))) {
+				if (method.isDefault() && !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+					return null;
+				}
+				methods.add(method);
+			}
+		}
+		return methods;
+	}
+	
+	/**
+	 * Whether the method has the name and parameters of one of the methods of GeneratedProxy (apart from the ones it inherits from Object)
+	 */
+	private static boolean isReserved(Method method) {
+		for (Method reserved : GeneratedProxy.class.getDeclaredMethods()) {
+			if (!Modifier.isPrivate(reserved.getModifiers()) && reserved.getName().equals(method.getName()) && Arrays.equals(reserved.getParameterTypes(), method.getParameterTypes())) {
+				try {
+					Object.class.getMethod(reserved.getName(), reserved.getParameterTypes());
+				}
+				catch (NoSuchMethodException e) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	static byte[] write(String className, Class<?> javaInterface, List<Method> methods) throws IOException {
+		return write(className, javaInterface, methods, null);
+	}
+	
+	/**
+	 * If a list is passed in, it is filled with the position in the class file of the offset of each stack map frame that is written
+	 */
+	static byte[] write(String className, Class<?> javaInterface, List<Method> methods, List<Integer> framePositions) throws IOException {
+		// default methods are called with invokespecial which requires the declaring interface to be a direct superinterface
+		Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+		interfaces.add(javaInterface);
+		for (Method method : methods) {
+			if (method.isDefault()) {
+				interfaces.add(method.getDeclaringClass());
+			}
+		}
+		ClassWriter writer = new ClassWriter(className.replace('.', '/'), interfaces, methods);
+		byte[] bytes = writer.write();
+		if (framePositions != null) {
+			framePositions.addAll(writer.framePositions);
+		}
+		return bytes;
+	}
+	
+	static Class<?> define(Class<?> javaInterface, String className, byte[] bytes) throws ClassNotFoundException {
+		ProxyClassLoader loader = new ProxyClassLoader(javaInterface.getClassLoader());
+		loader.define(className, bytes);
+		// initialize it now so any verification errors surface here
+		return Class.forName(className, true, loader);
+	}
+	
+	private static boolean isAccessible(Class<?> type) {
+		while (type.isArray()) {
+			type = type.getComponentType();
+		}
+		return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+	}
+	
+	private static String getDescriptor(Method method) {
+		StringBuilder builder = new StringBuilder("(");
+		for (Class<?> parameterType : method.getParameterTypes()) {
+			builder.append(getDescriptor(parameterType));
+		}
+		return builder.append(")").append(getDescriptor(method.getReturnType())).toString();
+	}
+	
+	private static String getDescriptor(Class<?> type) {
+		if (type.isArray()) {
+			return type.getName().replace('.', '/');
+		}
+		else if (void.class.equals(type)) {
+			return "V";
+		}
+		else if (type.isPrimitive()) {
+			return String.valueOf(Primitive.of(type).descriptor);
+		}
+		return "L" + getInternalName(type) + ";";
+	}
+	
+	/**
+	 * For arrays the class name is already the descriptor which is also what is expected as internal name
+	 */
+	private static String getInternalName(Class<?> type) {
+		return type.getName().replace('.', '/');
+	}
+	
+	/**
+	 * The bytecode details of each primitive type
+	 */
+	private enum Primitive {
+		BOOLEAN(boolean.class, Boolean.class, 'Z', 0x15, 0xac),
+		BYTE(byte.class, Byte.class, 'B', 0x15, 0xac),
+		CHAR(char.class, Character.class, 'C', 0x15, 0xac),
+		SHORT(short.class, Short.class, 'S', 0x15, 0xac),
+		INT(int.class, Integer.class, 'I', 0x15, 0xac),
+		LONG(long.class, Long.class, 'J', 0x16, 0xad),
+		FLOAT(float.class, Float.class, 'F', 0x17, 0xae),
+		DOUBLE(double.class, Double.class, 'D', 0x18, 0xaf);
+		
+		private final Class<?> type, wrapper;
+		private final char descriptor;
+		private final int load, ret;
+		
+		private Primitive(Class<?> type, Class<?> wrapper, char descriptor, int load, int ret) {
+			this.type = type;
+			this.wrapper = wrapper;
+			this.descriptor = descriptor;
+			this.load = load;
+			this.ret = ret;
+		}
+		
+		private int getSize() {
+			return this == LONG || this == DOUBLE ? 2 : 1;
+		}
+		
+		private static Primitive of(Class<?> type) {
+			for (Primitive primitive : values()) {
+				if (primitive.type.equals(type)) {
+					return primitive;
+				}
+			}
+			throw new IllegalArgumentException("Not a primitive: " + type);
+		}
+	}
+	
+	private static final int ALOAD = 0x19, ASTORE = 0x3a, ARETURN = 0xb0, RETURN = 0xb1, POP = 0x57, 
+		LDC_W = 0x13, BIPUSH = 0x10, SIPUSH = 0x11, ICONST_0 = 0x03, IFEQ = 0x99, WIDE = 0xc4, CHECKCAST = 0xc0,
+		INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+	
+	private static class ClassWriter {
+		private String className;
+		private Set<Class<?>> interfaces;
+		private List<Method> methods;
+		
+		private ByteArrayOutputStream constantBytes = new ByteArrayOutputStream();
+		private DataOutputStream constants = new DataOutputStream(constantBytes);
+		private Map<String, Integer> constantIndexes = new HashMap<String, Integer>();
+		private int constantCount = 1;
+		// relative to the start of the methods until the class file is complete
+		private List<Integer> framePositions = new ArrayList<Integer>();
+		
+		private ClassWriter(String className, Set<Class<?>> interfaces, List<Method> methods) {
+			this.className = className;
+			this.interfaces = interfaces;
+			this.methods = methods;
+		}
+		
+		private byte[] write() throws IOException {
+			// the constant pool has to be written first but is filled in while generating the code
+			ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(methodBytes);
+			writeConstructor(output);
+			for (int i = 0; i < methods.size(); i++) {
+				writeMethod(output, methods.get(i), i);
+			}
+			int thisClass = classConstant(className);
+			int superClass = classConstant(SUPER_CLASS);
+			List<Integer> interfaceIndexes = new ArrayList<Integer>();
+			for (Class<?> iface : interfaces) {
+				interfaceIndexes.add(classConstant(getInternalName(iface)));
+			}
+			
+			ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+			DataOutputStream classOutput = new DataOutputStream(classBytes);
+			classOutput.writeInt(0xCAFEBABE);
+			classOutput.writeShort(0);
+			// java 8
+			classOutput.writeShort(52);
+			classOutput.writeShort(constantCount);
+			constants.flush();
+			classOutput.write(constantBytes.toByteArray());
+			// public final super
+			classOutput.writeShort(0x0001 | 0x0010 | 0x0020);
+			classOutput.writeShort(thisClass);
+			classOutput.writeShort(superClass);
+			classOutput.writeShort(interfaceIndexes.size());
+			for (Integer index : interfaceIndexes) {
+				classOutput.writeShort(index);
+			}
+			// no fields
+			classOutput.writeShort(0);
+			classOutput.writeShort(methods.size() + 1);
+			output.flush();
+			for (int i = 0; i < framePositions.size(); i++) {
+				framePositions.set(i, framePositions.get(i) + classOutput.size());
+			}
+			classOutput.write(methodBytes.toByteArray());
+			// no class attributes
+			classOutput.writeShort(0);
+			classOutput.flush();
+			return classBytes.toByteArray();
+		}
+		
+		private void writeConstructor(DataOutputStream output) throws IOException {
+			Code code = new Code();
+			code.u1(0x2a);
+			code.u1(0x2b);
+			code.u1(0x2c);
+			code.u1(INVOKESPECIAL);
+			code.u2(methodConstant(SUPER_CLASS, "<init>", CONSTRUCTOR_DESCRIPTOR, false));
+			code.u1(RETURN);
+			writeMethod(output, 0x0001, "<init>", CONSTRUCTOR_DESCRIPTOR, code, 3, 3, -1);
+		}
+		
+		private void writeMethod(DataOutputStream output, Method method, int index) throws IOException {
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			String[] names = getInputNames(method);
+			int locals = 1;
+			for (Class<?> parameterType : parameterTypes) {
+				locals += parameterType.isPrimitive() ? Primitive.of(parameterType).getSize() : 1;
+			}
+			int inputLocal = locals;
+			
+			Code code = new Code();
+			int defaultOffset = -1, branch = -1;
+			if (method.isDefault()) {
+				// if (!hasService(index)) return Interface.super.method(...)
+				code.u1(0x2a);
+				pushInt(code, index);
+				code.u1(INVOKEVIRTUAL);
+				code.u2(methodConstant(SUPER_CLASS, "hasService", "(I)Z", false));
+				branch = code.size();
+				code.u1(IFEQ);
+				// patched once we know where the default implementation starts
+				code.u2(0);
+			}
+			// ComplexContent input = newInput(index);
+			code.u1(0x2a);
+			pushInt(code, index);
+			code.u1(INVOKEVIRTUAL);
+			code.u2(methodConstant(SUPER_CLASS, "newInput", "(I)" + CONTENT_DESCRIPTOR, false));
+			local(code, ASTORE, inputLocal);
+			// set(input, "name", argument);
+			int slot = 1;
+			for (int i = 0; i < parameterTypes.length; i++) {
+				local(code, ALOAD, inputLocal);
+				code.u1(LDC_W);
+				code.u2(stringConstant(names[i]));
+				slot = loadParameter(code, parameterTypes[i], slot);
+				if (parameterTypes[i].isPrimitive()) {
+					Primitive primitive = Primitive.of(parameterTypes[i]);
+					code.u1(INVOKESTATIC);
+					code.u2(methodConstant(getInternalName(primitive.wrapper), "valueOf", "(" + primitive.descriptor + ")" + getDescriptor(primitive.wrapper), false));
+				}
+				code.u1(INVOKESTATIC);
+				code.u2(methodConstant(SUPER_CLASS, "set", "(" + CONTENT_DESCRIPTOR + "Ljava/lang/String;Ljava/lang/Object;)V", false));
+			}
+			// return (R) execute(index, input);
+			code.u1(0x2a);
+			pushInt(code, index);
+			local(code, ALOAD, inputLocal);
+			code.u1(INVOKEVIRTUAL);
+			code.u2(methodConstant(SUPER_CLASS, "execute", "(I" + CONTENT_DESCRIPTOR + ")Ljava/lang/Object;", false));
+			writeReturn(code, method.getReturnType(), true);
+			
+			if (method.isDefault()) {
+				defaultOffset = code.size();
+				code.patch(branch + 1, defaultOffset - branch);
+				code.u1(0x2a);
+				slot = 1;
+				for (Class<?> parameterType : parameterTypes) {
+					slot = loadParameter(code, parameterType, slot);
+				}
+				code.u1(INVOKESPECIAL);
+				code.u2(methodConstant(getInternalName(method.getDeclaringClass()), method.getName(), getDescriptor(method), true));
+				writeReturn(code, method.getReturnType(), false);
+			}
+			// the largest stack is the input, the name and a long or double argument
+			writeMethod(output, 0x0001, method.getName(), getDescriptor(method), code, Math.max(5, locals + 1), inputLocal + 1, defaultOffset);
+		}
+		
+		private String[] getInputNames(Method method) {
+			List<String> names = new ArrayList<String>();
+			for (Element<?> element : MethodServiceInterface.wrap(method).getInputDefinition()) {
+				names.add(element.getName());
+			}
+			if (names.size() != method.getParameterTypes().length) {
+				throw new IllegalStateException("The input definition of " + method + " does not match its parameters");
+			}
+			return names.toArray(new String[names.size()]);
+		}
+		
+		private int loadParameter(Code code, Class<?> parameterType, int slot) {
+			if (parameterType.isPrimitive()) {
+				Primitive primitive = Primitive.of(parameterType);
+				local(code, primitive.load, slot);
+				return slot + primitive.getSize();
+			}
+			local(code, ALOAD, slot);
+			return slot + 1;
+		}
+		
+		/**
+		 * When returning the generic result of execute() we need to cast and unbox, the result of a default method is already correctly typed
+		 */
+		private void writeReturn(Code code, Class<?> returnType, boolean fromObject) throws IOException {
+			if (void.class.equals(returnType)) {
+				if (fromObject) {
+					code.u1(POP);
+				}
+				code.u1(RETURN);
+			}
+			else if (returnType.isPrimitive()) {
+				Primitive primitive = Primitive.of(returnType);
+				if (fromObject) {
+					code.u1(CHECKCAST);
+					code.u2(classConstant(getInternalName(primitive.wrapper)));
+					code.u1(INVOKEVIRTUAL);
+					code.u2(methodConstant(getInternalName(primitive.wrapper), primitive.type.getName() + "Value", "()" + primitive.descriptor, false));
+				}
+				code.u1(primitive.ret);
+			}
+			else {
+				if (fromObject && !Object.class.equals(returnType)) {
+					code.u1(CHECKCAST);
+					code.u2(classConstant(getInternalName(returnType)));
+				}
+				code.u1(ARETURN);
+			}
+		}
+		
+		private void pushInt(Code code, int value) {
+			if (value <= 5) {
+				code.u1(ICONST_0 + value);
+			}
+			else if (value <= Byte.MAX_VALUE) {
+				code.u1(BIPUSH);
+				code.u1(value);
+			}
+			else {
+				code.u1(SIPUSH);
+				code.u2(value);
+			}
+		}
+		
+		private void local(Code code, int opcode, int index) {
+			if (index > 255) {
+				code.u1(WIDE);
+				code.u1(opcode);
+				code.u2(index);
+			}
+			else {
+				code.u1(opcode);
+				code.u1(index);
+			}
+		}
+		
+		private void writeMethod(DataOutputStream output, int access, String name, String descriptor, Code code, int maxStack, int maxLocals, int frameOffset) throws IOException {
+			output.writeShort(access);
+			output.writeShort(utf8Constant(name));
+			output.writeShort(utf8Constant(descriptor));
+			output.writeShort(1);
+			byte[] bytes = code.toByteArray();
+			output.writeShort(utf8Constant("Code"));
+			// max stack, max locals, code length, code, exception table length, attribute count (+ optional stack map table)
+			output.writeInt(2 + 2 + 4 + bytes.length + 2 + 2 + (frameOffset >= 0 ? 11 : 0));
+			output.writeShort(maxStack);
+			output.writeShort(maxLocals);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+			output.writeShort(0);
+			if (frameOffset >= 0) {
+				// the only jump target is the default implementation, at that point the locals are exactly the parameters and the stack is empty
+				output.writeShort(1);
+				output.writeShort(utf8Constant("StackMapTable"));
+				output.writeInt(5);
+				output.writeShort(1);
+				// same_frame_extended
+				output.writeByte(251);
+				framePositions.add(output.size());
+				output.writeShort(frameOffset);
+			}
+			else {
+				output.writeShort(0);
+			}
+		}
+		
+		private int utf8Constant(String value) throws IOException {
+			Integer index = constantIndexes.get("utf8:" + value);
+			if (index == null) {
+				constants.writeByte(1);
+				constants.writeUTF(value);
+				index = register("utf8:" + value, 1);
+			}
+			return index;
+		}
+		
+		private int classConstant(String internalName) throws IOException {
+			Integer index = constantIndexes.get("class:" + internalName);
+			if (index == null) {
+				int name = utf8Constant(internalName);
+				constants.writeByte(7);
+				constants.writeShort(name);
+				index = register("class:" + internalName, 1);
+			}
+			return index;
+		}
+		
+		private int stringConstant(String value) throws IOException {
+			Integer index = constantIndexes.get("string:" + value);
+			if (index == null) {
+				int utf8 = utf8Constant(value);
+				constants.writeByte(8);
+				constants.writeShort(utf8);
+				index = register("string:" + value, 1);
+			}
+			return index;
+		}
+		
+		private int methodConstant(String owner, String name, String descriptor, boolean isInterface) throws IOException {
+			String key = (isInterface ? "imethod:" : "method:") + owner + "." + name + descriptor;
+			Integer index = constantIndexes.get(key);
+			if (index == null) {
+				int ownerIndex = classConstant(owner);
+				int nameIndex = utf8Constant(name);
+				int descriptorIndex = utf8Constant(descriptor);
+				String nameAndTypeKey = "nat:" + name + descriptor;
+				Integer nameAndType = constantIndexes.get(nameAndTypeKey);
+				if (nameAndType == null) {
+					constants.writeByte(12);
+					constants.writeShort(nameIndex);
+					constants.writeShort(descriptorIndex);
+					nameAndType = register(nameAndTypeKey, 1);
+				}
+				constants.writeByte(isInterface ? 11 : 10);
+				constants.writeShort(ownerIndex);
+				constants.writeShort(nameAndType);
+				index = register(key, 1);
+			}
+			return index;
+		}
+		
+		private int register(String key, int slots) {
+			int index = constantCount;
+			constantCount += slots;
+			constantIndexes.put(key, index);
+			return index;
+		}
+	}
+	
+	private static class Code extends ByteArrayOutputStream {
+		private void u1(int value) {
+			write(value);
+		}
+		private void u2(int value) {
+			write((value >>> 8) & 0xff);
+			write(value & 0xff);
+		}
+		private void patch(int position, int value) {
+			buf[position] = (byte) ((value >>> 8) & 0xff);
+			buf[position + 1] = (byte) (value & 0xff);
+		}
+	}
+	
+	/**
+	 * The classes we link against are loaded from our own classloader, everything else is loaded through the classloader of the interface
+	 */
+	private static class ProxyClassLoader extends ClassLoader {
+		
+		private static final Set<String> OWN_CLASSES = new HashSet<String>(Arrays.asList(
+			GeneratedProxy.class.getName(), 
+			ServiceInvocationHandler.class.getName(), 
+			ComplexContent.class.getName()
+		));
+		
+		private ProxyClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+		
+		private Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+		
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (OWN_CLASSES.contains(name)) {
+				return ProxyGenerator.class.getClassLoader().loadClass(name);
+			}
+			try {
+				return super.loadClass(name, resolve);
+			}
+			catch (ClassNotFoundException e) {
+				return ProxyGenerator.class.getClassLoader().loadClass(name);
+			}
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.java.BeanInstance;
+
+/**
+ * The cached results of a single method service, keyed by the values in the input.
+ * Complex content and beans in the input are compared by value, other objects by their equals().
+ * Lookups do not lock, once the cache is full the least recently used entries are evicted in bulk so the cost is spread over many calls.
+ * Results are copied when they are stored and again for every hit, so callers can not change the cached result or each other's result.
+ */
+public class ResultCache {
+
+	private final String id;
+	private final int maxEntries;
+	private final long timeToLive;
+	private final Map<Object, Entry> entries = new ConcurrentHashMap<Object, Entry>();
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	/**
+	 * Incremented by every invalidation, a result that was computed before it is not stored
+	 */
+	private final AtomicLong generation = new AtomicLong();
+	private final LongAdder hitCount = new LongAdder(), missCount = new LongAdder(), evictionCount = new LongAdder();
+	
+	ResultCache(String id, int maxEntries, long timeToLive) {
+		this.id = id;
+		this.maxEntries = maxEntries;
+		this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+	}
+	
+	static ResultCache newCache(String id, CacheResult annotation) {
+		return new ResultCache(id, annotation.maxEntries(), annotation.timeToLive());
+	}
+	
+	/**
+	 * Returns the cached entry or null if there is none, an expired entry is removed
+	 */
+	Entry get(Object key) {
+		Entry entry = entries.get(key);
+		if (entry != null && isExpired(entry, System.nanoTime())) {
+			if (entries.remove(key, entry)) {
+				evictionCount.increment();
+			}
+			entry = null;
+		}
+		if (entry == null) {
+			missCount.increment();
+		}
+		else {
+			entry.lastAccess = System.nanoTime();
+			hitCount.increment();
+		}
+		return entry;
+	}
+	
+	void put(Object key, Object value) {
+		put(key, value, generation.get());
+	}
+	
+	/**
+	 * Stores the result unless the cache was invalidated since the given generation, the value should already be a copy
+	 */
+	void put(Object key, Object value, long generation) {
+		if (this.generation.get() != generation) {
+			return;
+		}
+		Entry entry = new Entry(value);
+		entries.put(key, entry);
+		// an invalidation that happened while we were storing
+		if (this.generation.get() != generation) {
+			entries.remove(key, entry);
+		}
+		else if (entries.size() > maxEntries) {
+			evict();
+		}
+	}
+	
+	long getGeneration() {
+		return generation.get();
+	}
+	
+	private boolean isExpired(Entry entry, long now) {
+		return timeToLive > 0 && now - entry.created > timeToLive;
+	}
+	
+	/**
+	 * Removes the expired entries and the least recently used ones until a tenth of the cache is free.
+	 * Only one thread evicts at a time, the others do not wait for it so the cache can briefly hold more than the maximum.
+	 */
+	private void evict() {
+		if (!evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			int excess = entries.size() - maxEntries;
+			if (excess <= 0) {
+				return;
+			}
+			long now = System.nanoTime();
+			List<Long> accessed = new ArrayList<Long>(entries.size());
+			for (Entry entry : entries.values()) {
+				if (!isExpired(entry, now)) {
+					accessed.add(entry.lastAccess);
+				}
+			}
+			// expired entries are always removed, the rest of the room is made by removing the least recently used entries
+			int remaining = Math.max(excess, maxEntries / 10) - (entries.size() - accessed.size());
+			long cutoff = Long.MIN_VALUE;
+			if (remaining > 0 && !accessed.isEmpty()) {
+				Collections.sort(accessed);
+				cutoff = accessed.get(Math.min(remaining, accessed.size()) - 1);
+			}
+			for (Map.Entry<Object, Entry> entry : entries.entrySet()) {
+				boolean expired = isExpired(entry.getValue(), now);
+				if ((expired || (remaining > 0 && entry.getValue().lastAccess <= cutoff)) && entries.remove(entry.getKey(), entry.getValue())) {
+					evictionCount.increment();
+					if (!expired) {
+						remaining--;
+					}
+				}
+			}
+		}
+		finally {
+			evicting.set(false);
+		}
+	}
+	
+	static Object getKey(ComplexContent input) {
+		return input == null ? Collections.emptyList() : getValue(input, true);
+	}
+	
+	/**
+	 * Beans are compared by their content, as most of them do not implement equals()
+	 */
+	private static Object getValue(Object value, boolean complex) {
+		if (value instanceof ComplexContent) {
+			ComplexContent content = (ComplexContent) value;
+			List<Object> key = new ArrayList<Object>();
+			for (Element<?> child : TypeUtils.getAllChildren(content.getType())) {
+				key.add(getValue(content.get(child.getName()), child.getType() instanceof ComplexType));
+			}
+			return key;
+		}
+		else if (value instanceof Collection) {
+			List<Object> key = new ArrayList<Object>();
+			for (Object item : (Collection<?>) value) {
+				key.add(getValue(item, complex));
+			}
+			return key;
+		}
+		else if (value instanceof Object[]) {
+			return getValue(Arrays.asList((Object[]) value), complex);
+		}
+		else if (complex && value != null) {
+			return getValue(new BeanInstance<Object>(value), true);
+		}
+		return value;
+	}
+	
+	/**
+	 * Copies beans, complex content, collections and arrays so the copy shares nothing mutable with the original.
+	 * Beans that can not be instantiated are shared.
+	 */
+	static Object copy(Object value, boolean complex) {
+		if (value instanceof ComplexContent) {
+			return copy((ComplexContent) value);
+		}
+		else if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			// asking for the size first makes a streamed list keep its items so the original can still be read
+			List<Object> copy = new ArrayList<Object>(collection.size());
+			for (Object item : collection) {
+				copy.add(copy(item, complex));
+			}
+			return copy;
+		}
+		else if (value instanceof Object[]) {
+			Object[] copy = ((Object[]) value).clone();
+			for (int i = 0; i < copy.length; i++) {
+				copy[i] = copy(copy[i], complex);
+			}
+			return copy;
+		}
+		else if (value instanceof Date) {
+			return ((Date) value).clone();
+		}
+		else if (complex && value != null) {
+			try {
+				ComplexContent copy = copy(new BeanInstance<Object>(value));
+				return copy instanceof BeanInstance ? ((BeanInstance<?>) copy).getUnwrapped() : value;
+			}
+			catch (RuntimeException e) {
+				return value;
+			}
+		}
+		return value;
+	}
+	
+	private static ComplexContent copy(ComplexContent content) {
+		ComplexContent copy = content.getType().newInstance();
+		for (Element<?> child : TypeUtils.getAllChildren(content.getType())) {
+			Object childValue = content.get(child.getName());
+			if (childValue != null) {
+				copy.set(child.getName(), copy(childValue, child.getType() instanceof ComplexType));
+			}
+		}
+		return copy;
+	}
+	
+	/**
+	 * Removes all cached results, results of calls that are still running are not stored
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		entries.clear();
+	}
+	
+	/**
+	 * Removes the cached result for the given input, results of calls that are still running are not stored
+	 */
+	public void invalidate(ComplexContent input) {
+		generation.incrementAndGet();
+		entries.remove(getKey(input));
+	}
+	
+	public String getId() {
+		return id;
+	}
+	
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+	
+	public long getMissCount() {
+		return missCount.sum();
+	}
+	
+	/**
+	 * The amount of results that were removed because the cache was full or they expired
+	 */
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+	
+	public int getSize() {
+		return entries.size();
+	}
+	
+	static final class Entry {
+		private final Object value;
+		private final long created = System.nanoTime();
+		private volatile long lastAccess = created;
+		
+		private Entry(Object value) {
+			this.value = value;
+		}
+		
+		Object getValue() {
+			return value;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The execution of a method service, the duration of the event is the full execution
+ */
+@Name(ServiceExecutionEvent.NAME)
+@Label("Service Execution")
+@Description("The execution of a java method as a service")
+@Category({ "Nabu", "POJO Services" })
+@Enabled(false)
+@StackTrace(false)
+final class ServiceExecutionEvent extends Event {
+	
+	static final String NAME = "be.nabu.services.pojo.ServiceExecution";
+	
+	@Label("Service Id")
+	String serviceId;
+	
+	@Label("Argument Count")
+	int argumentCount;
+	
+	@Label("Conversion Duration")
+	@Description("Time spent converting the input to arguments and the return value to output")
+	@Timespan(Timespan.NANOSECONDS)
+	long conversionDuration;
+	
+	@Label("Error Code")
+	String errorCode;
+}
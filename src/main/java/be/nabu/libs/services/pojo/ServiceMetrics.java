@@ -0,0 +1,155 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of a single service or proxied method, all counters are striped so concurrent updates do not contend
+ */
+public class ServiceMetrics implements ServiceMetricsMXBean {
+
+	private static final long [] BUCKETS = new long [] { 10, 50, 100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, Long.MAX_VALUE };
+	
+	private final String id;
+	private final LongAdder invocations = new LongAdder(), errors = new LongAdder(), 
+		inputConversionTime = new LongAdder(), executionTime = new LongAdder(), outputConversionTime = new LongAdder();
+	private final ConcurrentMap<String, LongAdder> errorsByCode = new ConcurrentHashMap<String, LongAdder>();
+	private final LongAdder [] histogram = new LongAdder[BUCKETS.length];
+	
+	ServiceMetrics(String id) {
+		this.id = id;
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = new LongAdder();
+		}
+	}
+	
+	void record(long inputConversion, long execution, long outputConversion) {
+		invocations.increment();
+		inputConversionTime.add(inputConversion);
+		executionTime.add(execution);
+		outputConversionTime.add(outputConversion);
+		long micros = (inputConversion + execution + outputConversion) / 1000;
+		int bucket = 0;
+		while (micros > BUCKETS[bucket]) {
+			bucket++;
+		}
+		histogram[bucket].increment();
+	}
+	
+	void error(String code) {
+		invocations.increment();
+		errors.increment();
+		if (code == null) {
+			code = "UNKNOWN";
+		}
+		LongAdder counter = errorsByCode.get(code);
+		if (counter == null) {
+			errorsByCode.putIfAbsent(code, new LongAdder());
+			counter = errorsByCode.get(code);
+		}
+		counter.increment();
+	}
+	
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public long getInvocations() {
+		return invocations.sum();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public Map<String, Long> getErrorsByCode() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : errorsByCode.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().sum());
+		}
+		return result;
+	}
+
+	@Override
+	public long getTotalTime() {
+		return inputConversionTime.sum() + executionTime.sum() + outputConversionTime.sum();
+	}
+
+	@Override
+	public long getAverageTime() {
+		long succeeded = invocations.sum() - errors.sum();
+		return succeeded <= 0 ? 0 : getTotalTime() / succeeded;
+	}
+
+	@Override
+	public long getInputConversionTime() {
+		return inputConversionTime.sum();
+	}
+
+	@Override
+	public long getExecutionTime() {
+		return executionTime.sum();
+	}
+
+	@Override
+	public long getOutputConversionTime() {
+		return outputConversionTime.sum();
+	}
+
+	@Override
+	public long[] getLatencyBuckets() {
+		return BUCKETS.clone();
+	}
+
+	@Override
+	public long[] getLatencyHistogram() {
+		long [] counts = new long[histogram.length];
+		for (int i = 0; i < histogram.length; i++) {
+			counts[i] = histogram[i].sum();
+		}
+		return counts;
+	}
+
+	@Override
+	public void reset() {
+		invocations.reset();
+		errors.reset();
+		inputConversionTime.reset();
+		executionTime.reset();
+		outputConversionTime.reset();
+		errorsByCode.clear();
+		for (LongAdder counter : histogram) {
+			counter.reset();
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "ServiceMetrics:" + id;
+	}
+}
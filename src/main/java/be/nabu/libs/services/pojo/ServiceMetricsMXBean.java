@@ -0,0 +1,51 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.util.Map;
+
+/**
+ * All times are in nanoseconds, the latency histogram has one count per bucket in getLatencyBuckets()
+ */
+public interface ServiceMetricsMXBean {
+	public String getId();
+	public long getInvocations();
+	public long getErrors();
+	public Map<String, Long> getErrorsByCode();
+	public long getTotalTime();
+	public long getAverageTime();
+	/**
+	 * Time spent converting the input into the arguments of the java method
+	 */
+	public long getInputConversionTime();
+	/**
+	 * Time spent in the method itself, for proxies this is the time spent in the service
+	 */
+	public long getExecutionTime();
+	/**
+	 * Time spent converting the return value into the output
+	 */
+	public long getOutputConversionTime();
+	/**
+	 * The upper bound of each bucket in microseconds, the last bucket is unbounded
+	 */
+	public long[] getLatencyBuckets();
+	public long[] getLatencyHistogram();
+	public void reset();
+}
@@ -0,0 +1,42 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Concurrent calls with the same input are coalesced: only the first one executes the method, the others wait for its result or exception and get their own copy of the result.
+ * Like result caching this is meant for services that do not depend on the execution context.
+ * This can be set on a method or a class, the method annotation takes precedence.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.TYPE })
+public @interface SingleFlight {
+	/**
+	 * The maximum amount of distinct inputs in flight, once reached additional calls execute without coalescing
+	 */
+	public int maxInFlight() default 1000;
+	/**
+	 * How many milliseconds a call waits for the one executing the method, after that it fails with POJO-7 while the executing call continues. 0 or less waits until it completes.
+	 */
+	public long maxWait() default 30000;
+}
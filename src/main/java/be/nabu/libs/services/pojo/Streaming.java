@@ -0,0 +1,304 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.stream.Stream;
+
+import be.nabu.libs.types.api.CollectionHandlerProvider;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Support for Iterable, Iterator and Stream as java types, they are described as lists but never materialized
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+final class Streaming {
+	
+	static boolean isStreaming(Class<?> type) {
+		return Iterable.class.equals(type) || Iterator.class.equals(type) || Stream.class.equals(type);
+	}
+	
+	/**
+	 * The type of the items, Object if it can not be determined
+	 */
+	static Class<?> getComponentType(Type genericType) {
+		if (genericType instanceof ParameterizedType) {
+			Type argument = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+			if (argument instanceof WildcardType) {
+				argument = ((WildcardType) argument).getUpperBounds()[0];
+			}
+			if (argument instanceof Class) {
+				return (Class<?>) argument;
+			}
+			else if (argument instanceof ParameterizedType) {
+				return (Class<?>) ((ParameterizedType) argument).getRawType();
+			}
+		}
+		return Object.class;
+	}
+	
+	/**
+	 * The size of the source if it is known without iterating, -1 otherwise
+	 */
+	static long getSize(Object source) {
+		if (source instanceof IteratorList) {
+			return ((IteratorList) source).getKnownSize();
+		}
+		else if (source instanceof Collection) {
+			return ((Collection) source).size();
+		}
+		else if (source != null && source.getClass().isArray()) {
+			return Array.getLength(source);
+		}
+		return -1;
+	}
+	
+	/**
+	 * Iterates over the items of the source without copying them, a single object is treated as a collection of one
+	 */
+	static Iterator<Object> iterator(final Object source, final CollectionHandlerProvider handler) {
+		if (source instanceof Iterable) {
+			return ((Iterable) source).iterator();
+		}
+		else if (source instanceof Iterator) {
+			return (Iterator) source;
+		}
+		else if (source instanceof Stream) {
+			return ((Stream) source).iterator();
+		}
+		else if (source.getClass().isArray()) {
+			final int length = Array.getLength(source);
+			return new Iterator<Object>() {
+				private int index;
+				@Override
+				public boolean hasNext() {
+					return index < length;
+				}
+				@Override
+				public Object next() {
+					if (index >= length) {
+						throw new NoSuchElementException();
+					}
+					return Array.get(source, index++);
+				}
+			};
+		}
+		else if (handler != null) {
+			final Iterator indexes = handler.getIndexes(source).iterator();
+			return new Iterator<Object>() {
+				@Override
+				public boolean hasNext() {
+					return indexes.hasNext();
+				}
+				@Override
+				public Object next() {
+					return handler.get(source, indexes.next());
+				}
+			};
+		}
+		return Collections.singletonList(source).iterator();
+	}
+	
+	/**
+	 * Exposes a streaming return value as a list, items are only pulled from the source when they are accessed
+	 */
+	static Object toList(Object value) {
+		if (value instanceof Stream) {
+			return new IteratorList(((Stream) value).iterator());
+		}
+		else if (value instanceof Iterator) {
+			return new IteratorList((Iterator) value);
+		}
+		else if (value instanceof Iterable && !(value instanceof Collection)) {
+			return new IteratorList(((Iterable) value).iterator());
+		}
+		return value;
+	}
+	
+	/**
+	 * A view on the list where complex content is converted to the component type when an item is read, the source must support random access.
+	 * Converted items are not kept so the view never holds a converted copy of the whole list, reading an item twice converts it twice.
+	 * The first modification copies the converted items into a regular list which backs the view from then on.
+	 */
+	static List<Object> toBeans(List<?> source, Class<?> componentType) {
+		return new ConvertingList(source, componentType);
+	}
+	
+	/**
+	 * A list that is iterated once pulls its items straight from the iterator without keeping them, so a large result is never held in memory as a whole.
+	 * Once the list is accessed by index or asked for its size, the items are kept so it can be read more than once.
+	 * Reading the list again after a plain iteration fails because those items are gone.
+	 */
+	private static class IteratorList extends AbstractList<Object> {
+		private final Iterator<?> iterator;
+		private final List<Object> buffer = new ArrayList<Object>();
+		/**
+		 * Whether the items are kept
+		 */
+		private boolean keep;
+		/**
+		 * The iterator that is pulling items without keeping them
+		 */
+		private Object streamer;
+		
+		private IteratorList(Iterator<?> iterator) {
+			this.iterator = iterator;
+		}
+		
+		/**
+		 * Pulls until the buffer contains the requested amount of items or the iterator is exhausted
+		 */
+		private synchronized boolean fill(int amount) {
+			checkNotStreamed(null);
+			keep = true;
+			while (buffer.size() < amount && iterator.hasNext()) {
+				buffer.add(iterator.next());
+			}
+			return buffer.size() >= amount;
+		}
+		
+		private void checkNotStreamed(Object reader) {
+			if (streamer != null && streamer != reader) {
+				throw new IllegalStateException("The items of this streamed list have already been consumed, it can only be read once");
+			}
+		}
+		
+		/**
+		 * The size if all items are kept and loaded, -1 otherwise
+		 */
+		private synchronized long getKnownSize() {
+			return keep && !iterator.hasNext() ? buffer.size() : -1;
+		}
+		
+		@Override
+		public synchronized Object get(int index) {
+			if (index < 0 || !fill(index + 1)) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			}
+			return buffer.get(index);
+		}
+
+		@Override
+		public synchronized int size() {
+			fill(Integer.MAX_VALUE);
+			return buffer.size();
+		}
+		
+		@Override
+		public synchronized boolean isEmpty() {
+			checkNotStreamed(null);
+			return buffer.isEmpty() && !iterator.hasNext();
+		}
+		
+		@Override
+		public Iterator<Object> iterator() {
+			return new Iterator<Object>() {
+				private int index;
+				@Override
+				public boolean hasNext() {
+					synchronized(IteratorList.this) {
+						if (keep) {
+							return fill(index + 1);
+						}
+						checkNotStreamed(this);
+						return iterator.hasNext();
+					}
+				}
+				@Override
+				public Object next() {
+					synchronized(IteratorList.this) {
+						if (keep) {
+							if (!fill(index + 1)) {
+								throw new NoSuchElementException();
+							}
+							return buffer.get(index++);
+						}
+						checkNotStreamed(this);
+						streamer = this;
+						return iterator.next();
+					}
+				}
+			};
+		}
+	}
+	
+	private static class ConvertingList extends AbstractList<Object> implements RandomAccess {
+		private final List<?> source;
+		private final Class<?> componentType;
+		private List<Object> copy;
+		
+		private ConvertingList(List<?> source, Class<?> componentType) {
+			this.source = source;
+			this.componentType = componentType;
+		}
+		
+		private Object convert(Object item) {
+			return item instanceof ComplexContent && !componentType.isAssignableFrom(item.getClass()) ? BeanMapper.getAsBean((ComplexContent) item, componentType) : item;
+		}
+		
+		private List<Object> getCopy() {
+			if (copy == null) {
+				copy = new ArrayList<Object>(source.size());
+				for (Object item : source) {
+					copy.add(convert(item));
+				}
+			}
+			return copy;
+		}
+
+		@Override
+		public Object get(int index) {
+			return copy == null ? convert(source.get(index)) : copy.get(index);
+		}
+
+		@Override
+		public int size() {
+			return copy == null ? source.size() : copy.size();
+		}
+		
+		@Override
+		public Object set(int index, Object element) {
+			return getCopy().set(index, element);
+		}
+		
+		@Override
+		public void add(int index, Object element) {
+			getCopy().add(index, element);
+			modCount++;
+		}
+		
+		@Override
+		public Object remove(int index) {
+			Object removed = getCopy().remove(index);
+			modCount++;
+			return removed;
+		}
+	}
+}
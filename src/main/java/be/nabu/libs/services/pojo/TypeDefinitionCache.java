@@ -0,0 +1,205 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import be.nabu.libs.types.CollectionHandlerFactory;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.CollectionHandlerProvider;
+import be.nabu.libs.types.api.DefinedTypeResolver;
+import be.nabu.libs.types.api.Type;
+import be.nabu.libs.types.base.ArrayCollectionHandlerProvider;
+import be.nabu.libs.types.java.BeanResolver;
+
+/**
+ * Caches the type and the collection handler of java classes used in method signatures, this is shared by all method service interfaces.
+ * Types are cached per resolver instance, only the bean type which does not depend on the resolver is shared between resolvers.
+ * The definitions are stored on the class itself so they are collected together with their classloader, they can also be evicted explicitly per classloader.
+ */
+public class TypeDefinitionCache {
+	
+	private static ClassValue<Definition> definitions = new ClassValue<Definition>() {
+		@Override
+		protected Definition computeValue(Class<?> type) {
+			classes.add(new WeakReference<Class<?>>(type));
+			return new Definition(type);
+		}
+	};
+	
+	private static Set<WeakReference<Class<?>>> classes = Collections.newSetFromMap(new ConcurrentHashMap<WeakReference<Class<?>>, Boolean>());
+	
+	private static LongAdder hitCount = new LongAdder(), missCount = new LongAdder();
+	
+	/**
+	 * Resolves the type for a class, first through the defined type resolver, then as a bean. Returns null if the class can not be resolved.
+	 */
+	public static Type getType(DefinedTypeResolver resolver, Class<?> clazz) {
+		Definition definition = definitions.get(clazz);
+		Type type = definition.types.get(new ResolverKey(resolver));
+		if (type != null) {
+			hitCount.increment();
+			return type;
+		}
+		missCount.increment();
+		type = resolver.resolve(TypeUtils.box(clazz).getName());
+		if (type == null) {
+			type = definition.getBeanType();
+		}
+		// we don't cache failures, the class might become resolvable later
+		if (type != null) {
+			definition.purge();
+			Type existing = definition.types.putIfAbsent(new ResolverKey(resolver), type);
+			if (existing != null) {
+				type = existing;
+			}
+		}
+		return type;
+	}
+	
+	/**
+	 * The collection handler for a class or null if it is not a collection, byte arrays are not considered collections
+	 */
+	public static CollectionHandlerProvider<?, ?> getCollectionHandler(Class<?> clazz) {
+		return definitions.get(clazz).getCollectionHandler();
+	}
+	
+	/**
+	 * Removes the definitions of all classes loaded by the given classloader (or one of its children)
+	 */
+	public static void evict(ClassLoader loader) {
+		Iterator<WeakReference<Class<?>>> iterator = classes.iterator();
+		while (iterator.hasNext()) {
+			Class<?> clazz = iterator.next().get();
+			if (clazz == null) {
+				iterator.remove();
+			}
+			else if (POJOResolver.isLoadedBy(clazz, loader)) {
+				iterator.remove();
+				definitions.remove(clazz);
+			}
+		}
+	}
+	
+	public static void clear() {
+		Iterator<WeakReference<Class<?>>> iterator = classes.iterator();
+		while (iterator.hasNext()) {
+			Class<?> clazz = iterator.next().get();
+			iterator.remove();
+			if (clazz != null) {
+				definitions.remove(clazz);
+			}
+		}
+	}
+	
+	/**
+	 * The amount of type resolutions that were saved by the cache
+	 */
+	public static long getHitCount() {
+		return hitCount.sum();
+	}
+	
+	public static long getMissCount() {
+		return missCount.sum();
+	}
+	
+	public static int getCachedClasses() {
+		return classes.size();
+	}
+	
+	private static final class Definition {
+		private final Class<?> clazz;
+		/**
+		 * Per resolver instance, the resolvers are only weakly referenced so a cached jdk class does not keep them (and their classloader) alive
+		 */
+		private final ConcurrentMap<ResolverKey, Type> types = new ConcurrentHashMap<ResolverKey, Type>();
+		/**
+		 * The bean type does not depend on the resolver so it is shared by all of them
+		 */
+		private volatile Type beanType;
+		private volatile CollectionHandlerProvider<?, ?> collectionHandler;
+		private volatile boolean collectionHandlerResolved;
+		
+		private Definition(Class<?> clazz) {
+			this.clazz = clazz;
+		}
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private CollectionHandlerProvider<?, ?> getCollectionHandler() {
+			if (!collectionHandlerResolved) {
+				collectionHandler = clazz.isArray() && !clazz.equals(byte[].class) 
+					? new ArrayCollectionHandlerProvider((Class<? extends Object[]>) clazz) 
+					: CollectionHandlerFactory.getInstance().getHandler().getHandler(clazz);
+				collectionHandlerResolved = true;
+			}
+			return collectionHandler;
+		}
+		
+		private Type getBeanType() {
+			if (beanType == null) {
+				beanType = BeanResolver.getInstance().resolve(clazz);
+			}
+			return beanType;
+		}
+		
+		private void purge() {
+			Iterator<ResolverKey> iterator = types.keySet().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().get() == null) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Compares resolvers by identity, two resolvers of the same class can contain different types
+	 */
+	private static final class ResolverKey extends WeakReference<DefinedTypeResolver> {
+		private final int hashCode;
+		
+		private ResolverKey(DefinedTypeResolver resolver) {
+			super(resolver);
+			this.hashCode = System.identityHashCode(resolver);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			if (object == this) {
+				return true;
+			}
+			if (!(object instanceof ResolverKey)) {
+				return false;
+			}
+			Object resolver = get();
+			return resolver != null && resolver == ((ResolverKey) object).get();
+		}
+	}
+}
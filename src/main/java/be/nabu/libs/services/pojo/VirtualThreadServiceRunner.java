@@ -0,0 +1,210 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.services.ServiceRuntime;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.Service;
+import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Runs every service in its own virtual thread if the jvm supports them (java 21+), otherwise a pool of platform threads is used.
+ * This is meant for proxies to services that spend most of their time blocked on I/O.
+ * The returned future is also a completion stage so asynchronous proxy methods do not block any thread while waiting.
+ * Service runnable observers are not supported, they are ignored.
+ */
+public class VirtualThreadServiceRunner implements ServiceRunner {
+
+	private static Logger logger = LoggerFactory.getLogger(VirtualThreadServiceRunner.class);
+	
+	/**
+	 * The size of the platform thread pool when there are no virtual threads and no explicit limit, by default four threads per processor
+	 */
+	private static int platformThreads = Integer.parseInt(System.getProperty("be.nabu.services.pojo.runnerThreads", "" + 4 * Math.max(2, Runtime.getRuntime().availableProcessors())));
+	
+	private final ExecutorService executor;
+	private final boolean virtual;
+	/**
+	 * Limits the amount of services that run at the same time, this is null if there is no limit
+	 */
+	private final Semaphore permits;
+	private final int maxConcurrent;
+	/**
+	 * The size of the platform thread pool, this is 0 for virtual threads
+	 */
+	private final int threads;
+	private final AtomicBoolean observersIgnored = new AtomicBoolean();
+	
+	public VirtualThreadServiceRunner() {
+		this(0);
+	}
+	
+	/**
+	 * Once the maximum is reached new services wait for a permit in their own (virtual) thread, the caller is never blocked
+	 */
+	public VirtualThreadServiceRunner(int maxConcurrent) {
+		this(maxConcurrent, true);
+	}
+	
+	/**
+	 * Platform threads can be forced, for example to compare both
+	 */
+	public VirtualThreadServiceRunner(int maxConcurrent, boolean preferVirtual) {
+		this.maxConcurrent = maxConcurrent;
+		this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+		ExecutorService executor = preferVirtual ? newVirtualExecutor() : null;
+		this.virtual = executor != null;
+		// with a limit the pool itself is the cap, no thread has to wait for a permit
+		this.threads = virtual ? 0 : (maxConcurrent > 0 ? maxConcurrent : platformThreads);
+		this.executor = executor == null ? newPlatformExecutor(threads) : executor;
+	}
+	
+	private static ExecutorService newVirtualExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		}
+		catch (Exception e) {
+			logger.debug("Virtual threads are not available, falling back to platform threads");
+			return null;
+		}
+	}
+	
+	private static ExecutorService newPlatformExecutor(int threads) {
+		ThreadFactory factory = new ThreadFactory() {
+			private AtomicInteger counter = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "pojo-runner-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), factory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	@Override
+	public Future<ServiceResult> run(final Service service, final ExecutionContext executionContext, final ComplexContent input, ServiceRunnableObserver...observers) {
+		if (observers != null && observers.length > 0 && observersIgnored.compareAndSet(false, true)) {
+			logger.warn("Service runnable observers are not supported by this runner, they are ignored");
+		}
+		final CompletableFuture<ServiceResult> future = new CompletableFuture<ServiceResult>();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					future.complete(execute(service, executionContext, input));
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			future.complete(new RunnerResult(null, new ServiceException("POJO-5", "The runner has been shut down", e)));
+		}
+		return future;
+	}
+	
+	private ServiceResult execute(Service service, ExecutionContext executionContext, ComplexContent input) {
+		if (permits != null) {
+			try {
+				permits.acquire();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return new RunnerResult(null, new ServiceException("POJO-2", "Interrupted while waiting for a permit", e));
+			}
+		}
+		try {
+			return new RunnerResult(new ServiceRuntime(service, executionContext).run(input), null);
+		}
+		catch (ServiceException e) {
+			return new RunnerResult(null, e);
+		}
+		// errors are reported as well, otherwise the caller would wait forever
+		catch (Throwable e) {
+			return new RunnerResult(null, new ServiceException("JAVA-0", "Service " + service + " threw exception", e));
+		}
+		finally {
+			if (permits != null) {
+				permits.release();
+			}
+		}
+	}
+	
+	/**
+	 * Whether services run in virtual threads or in the platform thread pool
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+	
+	/**
+	 * The size of the platform thread pool, 0 if virtual threads are used
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+	
+	/**
+	 * The amount of services that are currently running, this is only tracked if there is a limit
+	 */
+	public int getRunning() {
+		return permits == null ? -1 : maxConcurrent - permits.availablePermits();
+	}
+	
+	/**
+	 * The amount of services that are waiting for a permit
+	 */
+	public int getWaiting() {
+		return permits == null ? 0 : permits.getQueueLength();
+	}
+	
+	/**
+	 * Services that were already submitted are still executed, new services fail with POJO-5
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,103 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.services.pojo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of a warm-up, all times are in nanoseconds
+ */
+public class WarmupReport {
+	
+	private Map<String, Long> timings = new ConcurrentHashMap<String, Long>();
+	private Map<String, Throwable> failures = new ConcurrentHashMap<String, Throwable>();
+	private long duration;
+	
+	void success(String id, long duration) {
+		timings.put(id, duration);
+	}
+	
+	void failure(String id, Throwable throwable) {
+		failures.put(id, throwable);
+	}
+	
+	void setDuration(long duration) {
+		this.duration = duration;
+	}
+	
+	/**
+	 * The wall clock time of the whole warm-up
+	 */
+	public long getDuration() {
+		return duration;
+	}
+	
+	public int getServiceCount() {
+		return timings.size();
+	}
+	
+	/**
+	 * The time it took to warm up each service, the slowest services come first
+	 */
+	public Map<String, Long> getTimings() {
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(timings.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+				return o2.getValue().compareTo(o1.getValue());
+			}
+		});
+		Map<String, Long> sorted = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Long> entry : entries) {
+			sorted.put(entry.getKey(), entry.getValue());
+		}
+		return sorted;
+	}
+	
+	/**
+	 * The services (or classes) that could not be warmed up
+	 */
+	public Map<String, Throwable> getFailures() {
+		return new LinkedHashMap<String, Throwable>(failures);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Warmed up ").append(timings.size()).append(" services in ").append(TimeUnit.NANOSECONDS.toMillis(duration)).append("ms");
+		if (!failures.isEmpty()) {
+			builder.append(", ").append(failures.size()).append(" failed");
+		}
+		int count = 0;
+		for (Map.Entry<String, Long> entry : getTimings().entrySet()) {
+			if (count++ >= 10) {
+				break;
+			}
+			builder.append("\n\t").append(entry.getKey()).append(": ").append(TimeUnit.NANOSECONDS.toMicros(entry.getValue())).append("us");
+		}
+		return builder.toString();
+	}
+}
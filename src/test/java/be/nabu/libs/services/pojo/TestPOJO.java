@@ -17,16 +17,69 @@
 
 package be.nabu.libs.services.pojo;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import javax.jws.WebParam;
 import javax.jws.WebResult;
+import javax.management.ObjectName;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import junit.framework.TestCase;
+import be.nabu.libs.authentication.api.Token;
+import be.nabu.libs.property.ValueUtils;
 import be.nabu.libs.services.DefinedServiceResolverFactory;
+import be.nabu.libs.services.ServiceRuntime;
 import be.nabu.libs.services.ServiceUtils;
 import be.nabu.libs.services.api.DefinedServiceResolver;
+import be.nabu.libs.services.api.ExecutionContext;
+import be.nabu.libs.services.api.ExecutionContextProvider;
 import be.nabu.libs.services.api.Service;
 import be.nabu.libs.services.api.ServiceException;
+import be.nabu.libs.services.api.ServiceResult;
+import be.nabu.libs.services.api.ServiceRunnableObserver;
+import be.nabu.libs.services.api.ServiceRunner;
+import be.nabu.libs.types.DefinedTypeResolverFactory;
 import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.DefinedType;
+import be.nabu.libs.types.api.DefinedTypeResolver;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.api.SimpleType;
+import be.nabu.libs.types.base.ComplexElementImpl;
+import be.nabu.libs.types.base.SimpleElementImpl;
+import be.nabu.libs.types.base.ValueImpl;
+import be.nabu.libs.types.properties.MaxOccursProperty;
+import be.nabu.libs.types.structure.Structure;
 
 public class TestPOJO extends TestCase {
 	
@@ -40,10 +93,1601 @@ public class TestPOJO extends TestCase {
 		assertEquals("testing this", output.get("result"));
 	}
 	
+	public void testCollectionArgument() throws ServiceException {
+		DefinedServiceResolver resolver = DefinedServiceResolverFactory.getInstance().getResolver();
+		Service service = resolver.resolve(Test.class.getName() + ".join");
+		ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+		input.set("values", Arrays.asList("a", "b", "c"));
+		ComplexContent output = service.newInstance().execute(ServiceUtils.newExecutionContext(), input);
+		assertEquals("a,b,c", output.get("result"));
+		// the bindings are reused for subsequent calls
+		output = service.newInstance().execute(ServiceUtils.newExecutionContext(), input);
+		assertEquals("a,b,c", output.get("result"));
+	}
+	
+	public void testBatch() {
+		MethodService service = (MethodService) new POJOResolver().resolve(Test.class.getName() + ".upper");
+		List<ComplexContent> inputs = new ArrayList<ComplexContent>();
+		for (String value : new String[] { "a", "fail", "c" }) {
+			ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+			input.set("value", value);
+			inputs.add(input);
+		}
+		List<BatchResult> results = service.newInstance().executeBatch(ServiceUtils.newExecutionContext(), inputs).collect(Collectors.toList());
+		assertEquals(3, results.size());
+		assertEquals("A", results.get(0).getOutput().get("result"));
+		assertFalse(results.get(1).isSuccessful());
+		assertEquals("JAVA-0", results.get(1).getException().getCode());
+		assertEquals(2, results.get(2).getIndex());
+		assertEquals("C", results.get(2).getOutput().get("result"));
+	}
+	
+	public void testBatchStoppedEarly() throws Exception {
+		MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), PooledUpper.class, PooledUpper.class.getMethod("upper", String.class));
+		List<ComplexContent> inputs = new ArrayList<ComplexContent>();
+		for (String value : new String[] { "a", "b", "c" }) {
+			ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+			input.set("value", value);
+			inputs.add(input);
+		}
+		PooledUpper.instances.set(0);
+		// the streams are not closed, the pooled bean should still be handed back
+		assertEquals("A", service.newInstance().executeBatch(ServiceUtils.newExecutionContext(), inputs).findFirst().get().getOutput().get("result"));
+		assertEquals(2, service.newInstance().executeBatch(ServiceUtils.newExecutionContext(), inputs).limit(2).count());
+		assertEquals(3, service.newInstance().executeBatch(ServiceUtils.newExecutionContext(), inputs).count());
+		assertEquals(1, PooledUpper.instances.get());
+	}
+	
+	public void testMetrics() throws Exception {
+		POJOMetrics.setEnabled(true);
+		try {
+			MethodService service = (MethodService) new POJOResolver().resolve(Test.class.getName() + ".upper");
+			ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+			input.set("value", "a");
+			service.newInstance().execute(ServiceUtils.newExecutionContext(), input);
+			input.set("value", "fail");
+			try {
+				service.newInstance().execute(ServiceUtils.newExecutionContext(), input);
+				fail("Expected the service to fail");
+			}
+			catch (ServiceException e) {
+				// expected
+			}
+			ServiceMetrics metrics = POJOMetrics.getServiceMetrics(service.getId());
+			assertEquals(2, metrics.getInvocations());
+			assertEquals(1, metrics.getErrors());
+			assertEquals(Long.valueOf(1), metrics.getErrorsByCode().get("JAVA-0"));
+			long measured = 0;
+			for (long count : metrics.getLatencyHistogram()) {
+				measured += count;
+			}
+			// only successful calls end up in the histogram
+			assertEquals(1, measured);
+			assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(POJOMetrics.DOMAIN + ":type=Service,name=" + ObjectName.quote(service.getId()))));
+		}
+		finally {
+			POJOMetrics.setEnabled(false);
+			POJOMetrics.clear();
+		}
+	}
+	
+	public void testFlightRecorderEvents() throws Exception {
+		Recording recording = new Recording();
+		recording.enable(ServiceExecutionEvent.NAME).withoutThreshold();
+		recording.enable(ProxyDispatchEvent.NAME).withoutThreshold();
+		recording.start();
+		MethodService service = (MethodService) new POJOResolver().resolve(Test.class.getName() + ".upper");
+		ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+		input.set("value", "a");
+		service.newInstance().execute(ServiceUtils.newExecutionContext(), input);
+		MethodService greet = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), GreeterImpl.class, Greeter.class.getMethod("greet", String.class));
+		POJOUtils.newProxy(Greeter.class, greet, ServiceUtils.newExecutionContext()).greet("john");
+		recording.stop();
+		Path file = Files.createTempFile("pojo", ".jfr");
+		try {
+			recording.dump(file);
+			List<String> executed = new ArrayList<String>();
+			int dispatched = 0;
+			for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+				if (event.getEventType().getName().equals(ServiceExecutionEvent.NAME)) {
+					executed.add(event.getString("serviceId"));
+				}
+				else if (event.getEventType().getName().equals(ProxyDispatchEvent.NAME)) {
+					assertEquals("greet", event.getString("method"));
+					dispatched++;
+				}
+			}
+			// the proxy runs the greet service as well
+			assertEquals(Arrays.asList(service.getId(), greet.getId()), executed);
+			assertEquals(1, dispatched);
+		}
+		finally {
+			recording.close();
+			Files.delete(file);
+		}
+	}
+	
+	public void testGeneratedInvokerSignature() throws NoSuchMethodException {
+		// the annotation processor generates the same signatures at compile time
+		assertEquals("join(java.lang.String[])", GeneratedInvokers.getSignature(Test.class.getMethod("join", String[].class)));
+		assertEquals("hello(be.nabu.libs.services.pojo.TestPOJO$Greeter)", GeneratedInvokers.getSignature(TestPOJO.class.getMethod("hello", Greeter.class)));
+		// without generated invokers the invocation strategy is used
+		assertNull(GeneratedInvokers.getInvoker(Test.class, Test.class.getMethod("join", String[].class)));
+	}
+	
+	public String hello(Greeter greeter) {
+		return greeter.greet("world");
+	}
+	
+	public void testInvocationStrategies() throws Exception {
+		assertEquals(InvocationStrategy.METHOD_HANDLE, InvocationStrategy.parse(null));
+		assertEquals(InvocationStrategy.REFLECTION, InvocationStrategy.parse(" reflection "));
+		// an unknown value is ignored
+		assertEquals(InvocationStrategy.METHOD_HANDLE, InvocationStrategy.parse("bogus"));
+		
+		Object [][] table = new Object [][] {
+			{ "concat", new Object [] { "a", 1 }, "a1" },
+			{ "twice", new Object [] { 21 }, 42 },
+			{ "square", new Object [] { 3l }, 9l },
+			{ "record", new Object [] { "value" }, null },
+			{ "parse", new Object [] { "12" }, 12 },
+			// the exception of the method is wrapped the same way
+			{ "parse", new Object [] { "twelve" }, IOException.class },
+			{ "fail", new Object [] { "twelve" }, IllegalStateException.class },
+		};
+		InvokerTarget target = new InvokerTarget();
+		for (InvocationStrategy strategy : InvocationStrategy.values()) {
+			for (Object [] row : table) {
+				Method method = getMethod(InvokerTarget.class, (String) row[0]);
+				MethodInvoker invoker = strategy.newInvoker(method);
+				Object result;
+				try {
+					// static methods ignore the instance
+					result = invoker.invoke(Modifier.isStatic(method.getModifiers()) ? null : target, (Object []) row[1]);
+				}
+				catch (InvocationTargetException e) {
+					result = e.getCause().getClass();
+				}
+				assertEquals(row[0] + " (" + strategy + ")", row[2], result);
+			}
+		}
+		assertEquals(Arrays.asList("value", "value"), target.recorded);
+	}
+	
+	public static class InvokerTarget {
+		private List<String> recorded = new ArrayList<String>();
+		public String concat(String value, int number) {
+			return value + number;
+		}
+		public int twice(int value) {
+			return value * 2;
+		}
+		public static long square(long value) {
+			return value * value;
+		}
+		public void record(String value) {
+			recorded.add(value);
+		}
+		public int parse(String value) throws IOException {
+			try {
+				return Integer.parseInt(value);
+			}
+			catch (NumberFormatException e) {
+				throw new IOException(e);
+			}
+		}
+		public String fail(String value) {
+			throw new IllegalStateException(value);
+		}
+	}
+	
+	public void testTypeDefinitionCache() throws NoSuchMethodException {
+		Method method = Test.class.getMethod("doSomething", String.class, String.class);
+		DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+		new MethodServiceInterface(resolver, method).getInputDefinition();
+		long hits = TypeDefinitionCache.getHitCount();
+		// a new interface for the same method resolves nothing new
+		ComplexType input = new MethodServiceInterface(resolver, method).getInputDefinition();
+		assertEquals(2, TypeDefinitionCache.getHitCount() - hits);
+		assertNotNull(input.get("a"));
+		assertNotNull(TypeDefinitionCache.getCollectionHandler(String[].class));
+		assertNull(TypeDefinitionCache.getCollectionHandler(byte[].class));
+		// two resolvers of the same class do not share their types
+		DefinedType string = resolver.resolve(String.class.getName()), integer = resolver.resolve(Integer.class.getName());
+		assertSame(string, TypeDefinitionCache.getType(new FixedTypeResolver(string), Date.class));
+		assertSame(integer, TypeDefinitionCache.getType(new FixedTypeResolver(integer), Date.class));
+	}
+	
+	public void testWarmup() {
+		POJOResolver resolver = new POJOResolver();
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		classes.add(Test.class);
+		WarmupReport report = new POJOWarmup(resolver).warmup(classes);
+		assertTrue(report.getFailures().isEmpty());
+		assertEquals(3, report.getServiceCount());
+		assertEquals(3, resolver.getCachedServices());
+		// the services are served from the cache
+		resolver.resolve(Test.class.getName() + ".upper");
+		assertEquals(1, resolver.getHitCount());
+		// the resolver of the factory is warmed up as well
+		POJOResolver factory = (POJOResolver) DefinedServiceResolverFactory.getInstance().getResolver();
+		long hits = factory.getHitCount();
+		factory.resolve(Test.class.getName() + ".upper");
+		assertEquals(hits + 1, factory.getHitCount());
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testLazyBean() throws Exception {
+		DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+		Structure structure = new Structure();
+		structure.setName("person");
+		structure.add(new SimpleElementImpl<String>("name", (SimpleType<String>) resolver.resolve(String.class.getName()), structure));
+		structure.add(new SimpleElementImpl<Integer>("age", (SimpleType<Integer>) resolver.resolve(Integer.class.getName()), structure));
+		structure.add(new ComplexElementImpl("partner", structure, structure));
+		structure.add(new ComplexElementImpl("children", structure, structure, new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0)));
+		structure.add(new SimpleElementImpl<String>("nickname", (SimpleType<String>) resolver.resolve(String.class.getName()), structure));
+		
+		ComplexContent john = structure.newInstance();
+		john.set("name", "john");
+		john.set("age", 40);
+		john.set("nickname", "jay");
+		ComplexContent jane = structure.newInstance();
+		jane.set("name", "jane");
+		john.set("partner", jane);
+		ComplexContent child = structure.newInstance();
+		child.set("name", "jim");
+		john.set("children", Arrays.asList(child));
+		
+		Object bound = ArgumentBinding.compile(PersonService.class.getMethod("describe", Person.class))[0].bind("person", john);
+		// the original content is wrapped, not copied
+		assertSame(john, BeanView.getContent(bound));
+		Person person = (Person) bound;
+		assertEquals("john", person.getName());
+		assertEquals(40, person.getAge());
+		assertEquals("jane", person.getPartner().getName());
+		assertSame(person.getPartner(), person.getPartner());
+		assertEquals(0, person.getPartner().getAge());
+		assertEquals("jim", person.getChildren().get(0).getName());
+		person.setName("johnny");
+		assertEquals("johnny", john.get("name"));
+		assertEquals("johnny", person.getName());
+		
+		// renamed and transient properties follow the bean rules
+		assertEquals("jay", person.getAlias());
+		person.setAlias("jj");
+		assertEquals("jj", john.get("nickname"));
+		assertEquals("jj", person.getAlias());
+		assertNull(person.getDisplayName());
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testBeanMapper() {
+		DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+		Structure structure = new Structure();
+		structure.setName("pet");
+		structure.add(new SimpleElementImpl<String>("name", (SimpleType<String>) resolver.resolve(String.class.getName()), structure));
+		structure.add(new SimpleElementImpl<Integer>("age", (SimpleType<Integer>) resolver.resolve(Integer.class.getName()), structure));
+		structure.add(new ComplexElementImpl("friends", structure, structure, new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0)));
+		
+		ComplexContent rex = structure.newInstance();
+		rex.set("name", "rex");
+		rex.set("age", 3);
+		ComplexContent tom = structure.newInstance();
+		tom.set("name", "tom");
+		rex.set("friends", Arrays.asList(tom));
+		
+		BeanMapper<Pet> mapper = BeanMapper.getMapper(Pet.class);
+		assertNotNull(mapper);
+		Pet pet = mapper.toBean(rex);
+		assertEquals("rex", pet.getName());
+		assertEquals(3, pet.getAge());
+		assertEquals("tom", pet.getFriends().get(0).getName());
+		
+		ComplexContent content = mapper.toContent(pet, structure);
+		assertEquals("rex", content.get("name"));
+		assertEquals(3, content.get("age"));
+		
+		// interfaces can not be instantiated so they are left to the generic conversion
+		assertNull(BeanMapper.getMapper(Person.class));
+	}
+	
+	public void testBeanMapperElementNames() {
+		DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+		Structure structure = new Structure();
+		structure.setName("owner");
+		structure.add(new SimpleElementImpl<String>("fullName", (SimpleType<String>) resolver.resolve(String.class.getName()), structure));
+		structure.add(new SimpleElementImpl<String>("secret", (SimpleType<String>) resolver.resolve(String.class.getName()), structure));
+		ComplexContent content = structure.newInstance();
+		content.set("fullName", "john");
+		content.set("secret", "hidden");
+		
+		// the renamed property is mapped using its element name, the transient one is not mapped at all
+		BeanMapper<Owner> mapper = BeanMapper.getMapper(Owner.class);
+		assertNotNull(mapper);
+		Owner owner = mapper.toBean(content);
+		assertEquals("john", owner.getName());
+		assertNull(owner.getSecret());
+		
+		owner.setSecret("hidden");
+		ComplexContent copy = mapper.toContent(owner, structure);
+		assertEquals("john", copy.get("fullName"));
+		assertNull(copy.get("secret"));
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testParallelConversion() throws Exception {
+		DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+		Structure structure = new Structure();
+		structure.setName("pet");
+		structure.add(new SimpleElementImpl<String>("name", (SimpleType<String>) resolver.resolve(String.class.getName()), structure));
+		List<ComplexContent> pets = new ArrayList<ComplexContent>();
+		for (int i = 0; i < 5000; i++) {
+			ComplexContent pet = structure.newInstance();
+			pet.set("name", "pet" + i);
+			pets.add(pet);
+		}
+		int threshold = ParallelConversion.getThreshold();
+		ParallelConversion.setThreshold(1000);
+		try {
+			List<Pet> bound = (List<Pet>) ArgumentBinding.compile(PetService.class.getMethod("count", List.class))[0].bind("pets", pets);
+			assertEquals(5000, bound.size());
+			// the order is preserved
+			for (int i = 0; i < bound.size(); i++) {
+				assertEquals("pet" + i, bound.get(i).getName());
+			}
+		}
+		finally {
+			ParallelConversion.setThreshold(threshold);
+		}
+	}
+	
+	public void testStreamingParameters() throws Exception {
+		DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+		Structure structure = new Structure();
+		structure.setName("pet");
+		structure.add(new SimpleElementImpl<String>("name", (SimpleType<String>) resolver.resolve(String.class.getName()), structure));
+		structure.add(new SimpleElementImpl<Integer>("age", (SimpleType<Integer>) resolver.resolve(Integer.class.getName()), structure));
+		List<ComplexContent> pets = new ArrayList<ComplexContent>();
+		for (int i = 0; i < 3; i++) {
+			ComplexContent pet = structure.newInstance();
+			pet.set("name", "pet" + i);
+			pet.set("age", i + 1);
+			pets.add(pet);
+		}
+		// described as lists of the component type
+		MethodService service = new MethodService(resolver, PetService.class, PetService.class.getMethod("names", Iterable.class));
+		Element<?> element = service.getServiceInterface().getInputDefinition().get("pets");
+		assertEquals(0, ValueUtils.getValue(MaxOccursProperty.getInstance(), element.getProperties()).intValue());
+		
+		Iterable<Pet> iterable = (Iterable<Pet>) ArgumentBinding.compile(service.getMethod())[0].bind("pets", pets);
+		assertFalse(iterable instanceof Collection);
+		// re-iterable and converted lazily
+		for (int i = 0; i < 2; i++) {
+			Iterator<Pet> iterator = iterable.iterator();
+			assertEquals("pet0", iterator.next().getName());
+			assertEquals("pet1", iterator.next().getName());
+		}
+		Iterator<Pet> iterator = (Iterator<Pet>) ArgumentBinding.compile(PetService.class.getMethod("first", Iterator.class))[0].bind("pets", pets);
+		assertEquals("pet0", iterator.next().getName());
+		Stream<Pet> stream = (Stream<Pet>) ArgumentBinding.compile(PetService.class.getMethod("total", Stream.class))[0].bind("pets", pets);
+		assertEquals(3, stream.collect(Collectors.toList()).size());
+		
+		ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+		input.set("pets", pets);
+		assertEquals("pet0pet1pet2", service.newInstance().execute(ServiceUtils.newExecutionContext(), input).get("names"));
+	}
+	
+	public void testStreamingResults() throws Exception {
+		DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+		MethodService service = new MethodService(resolver, PetExportImpl.class, PetExport.class.getMethod("export", int.class));
+		ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+		input.set("amount", 1000);
+		int before = PetExportImpl.generated.get();
+		List<Pet> pets = (List<Pet>) service.newInstance().execute(ServiceUtils.newExecutionContext(), input).get("pets");
+		// nothing is generated until it is read
+		assertEquals(before, PetExportImpl.generated.get());
+		assertEquals("pet1", pets.get(1).getName());
+		assertEquals(before + 2, PetExportImpl.generated.get());
+		assertEquals(1000, pets.size());
+		assertEquals("pet999", pets.get(999).getName());
+		// once it is accessed by index the items are kept so it can be read again
+		assertEquals(1000, Streaming.getSize(pets));
+		assertEquals(1000, countItems(pets));
+		
+		// a list that is only iterated does not keep its items, so it can not be read twice
+		input.set("amount", 3);
+		pets = (List<Pet>) service.newInstance().execute(ServiceUtils.newExecutionContext(), input).get("pets");
+		assertEquals(3, countItems(pets));
+		assertEquals(-1, Streaming.getSize(pets));
+		try {
+			pets.iterator().next();
+			fail("The items should be gone");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		
+		// the proxy streams the result
+		PetExport export = POJOUtils.newProxy(PetExport.class, new MethodService(resolver, PetExportImpl.class, PetExport.class.getMethod("stream", int.class)), ServiceUtils.newExecutionContext());
+		assertEquals(3, export.stream(3).collect(Collectors.toList()).size());
+		
+		// lists can still be modified
+		export = POJOUtils.newProxy(PetExport.class, new MethodService(resolver, PetExportImpl.class, PetExport.class.getMethod("list", int.class)), ServiceUtils.newExecutionContext());
+		List<Pet> list = export.list(3);
+		assertEquals("pet2", list.get(2).getName());
+		list.remove(0);
+		list.add(new Pet());
+		assertEquals(3, list.size());
+		
+		// they are a view that converts the items as they are read, the first modification copies them
+		Structure structure = new Structure();
+		structure.setName("pet");
+		structure.add(new SimpleElementImpl<String>("name", (SimpleType<String>) resolver.resolve(String.class.getName()), structure));
+		List<ComplexContent> contents = new ArrayList<ComplexContent>();
+		for (int i = 0; i < 3; i++) {
+			ComplexContent pet = structure.newInstance();
+			pet.set("name", "pet" + i);
+			contents.add(pet);
+		}
+		List<Object> beans = Streaming.toBeans(contents, Pet.class);
+		assertEquals(3, beans.size());
+		assertEquals("pet2", ((Pet) beans.get(2)).getName());
+		beans.remove(0);
+		assertEquals(2, beans.size());
+		assertEquals("pet1", ((Pet) beans.get(0)).getName());
+		assertEquals(3, contents.size());
+	}
+	
+	private static int countItems(Iterable<?> iterable) {
+		int count = 0;
+		for (Iterator<?> iterator = iterable.iterator(); iterator.hasNext(); iterator.next()) {
+			count++;
+		}
+		return count;
+	}
+	
+	public void testResultCache() throws Exception {
+		MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), CodeTableImpl.class, CodeTable.class.getMethod("lookup", String.class));
+		ResultCache cache = service.getResultCache();
+		assertNotNull(cache);
+		CodeTable table = POJOUtils.newProxy(CodeTable.class, service, ServiceUtils.newExecutionContext());
+		int before = CodeTableImpl.lookups.get();
+		assertEquals("label-a", table.lookup("a"));
+		assertEquals("label-a", table.lookup("a"));
+		assertEquals(before + 1, CodeTableImpl.lookups.get());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		
+		// direct execution shares the cache
+		ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+		input.set("code", "a");
+		assertEquals("label-a", service.newInstance().execute(ServiceUtils.newExecutionContext(), input).get("label"));
+		assertEquals(before + 1, CodeTableImpl.lookups.get());
+		
+		// the least recently used entry is evicted
+		table.lookup("b");
+		table.lookup("c");
+		assertEquals(2, cache.getSize());
+		assertEquals(1, cache.getEvictionCount());
+		
+		cache.invalidate(input);
+		assertEquals("label-a", table.lookup("a"));
+		assertEquals(before + 4, CodeTableImpl.lookups.get());
+		cache.invalidate();
+		assertEquals(0, cache.getSize());
+		
+		MethodService expiring = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), CodeTableImpl.class, CodeTableImpl.class.getMethod("expiring", String.class));
+		input = expiring.getServiceInterface().getInputDefinition().newInstance();
+		input.set("code", "a");
+		expiring.newInstance().execute(ServiceUtils.newExecutionContext(), input);
+		Thread.sleep(5);
+		expiring.newInstance().execute(ServiceUtils.newExecutionContext(), input);
+		assertEquals(2, expiring.getResultCache().getMissCount());
+		
+		// services that are not annotated have no cache
+		assertNull(new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), Test.class, Test.class.getMethod("upper", String.class)).getResultCache());
+		
+		// beans are compared by value rather than by identity
+		MethodService describe = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), CodeTableImpl.class, CodeTableImpl.class.getMethod("describe", Pet.class));
+		for (int i = 0; i < 2; i++) {
+			Pet pet = new Pet();
+			pet.setName("rex");
+			input = describe.getServiceInterface().getInputDefinition().newInstance();
+			input.set("pet", pet);
+			assertEquals("label-rex", describe.newInstance().execute(ServiceUtils.newExecutionContext(), input).get("label"));
+		}
+		assertEquals(1, describe.getResultCache().getHitCount());
+		
+		// every caller gets its own copy of the cached result
+		MethodService adopt = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), CodeTableImpl.class, CodeTableImpl.class.getMethod("adopt", String.class));
+		input = adopt.getServiceInterface().getInputDefinition().newInstance();
+		input.set("name", "rex");
+		Pet first = (Pet) adopt.newInstance().execute(ServiceUtils.newExecutionContext(), input).get("pet");
+		first.setName("changed");
+		Pet second = (Pet) adopt.newInstance().execute(ServiceUtils.newExecutionContext(), input).get("pet");
+		assertEquals("rex", second.getName());
+		second.setName("changed");
+		assertEquals("rex", ((Pet) adopt.newInstance().execute(ServiceUtils.newExecutionContext(), input).get("pet")).getName());
+		assertEquals(2, adopt.getResultCache().getHitCount());
+		
+		// a call that was running when the cache was invalidated does not store its stale result
+		final MethodService slow = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), CodeTableImpl.class, CodeTableImpl.class.getMethod("slow", String.class));
+		final ComplexContent slowInput = slow.getServiceInterface().getInputDefinition().newInstance();
+		slowInput.set("code", "a");
+		CodeTableImpl.started = new CountDownLatch(1);
+		CodeTableImpl.release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<ComplexContent> future = executor.submit(new Callable<ComplexContent>() {
+				@Override
+				public ComplexContent call() throws Exception {
+					return slow.newInstance().execute(ServiceUtils.newExecutionContext(), slowInput);
+				}
+			});
+			assertTrue(CodeTableImpl.started.await(5, TimeUnit.SECONDS));
+			slow.getResultCache().invalidate();
+			CodeTableImpl.release.countDown();
+			assertEquals("label-a", future.get().get("label"));
+			assertEquals(0, slow.getResultCache().getSize());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	public void testResultCacheEviction() {
+		ResultCache cache = new ResultCache("test", 100, 0);
+		for (int i = 0; i < 100; i++) {
+			cache.put(i, "value" + i);
+		}
+		assertNotNull(cache.get(0));
+		// a tenth of the cache is freed at once, starting with the least recently used entries
+		cache.put(100, "value100");
+		assertEquals(91, cache.getSize());
+		assertEquals(10, cache.getEvictionCount());
+		assertNotNull(cache.get(0));
+		assertNull(cache.get(1));
+		assertNotNull(cache.get(100));
+		for (int i = 101; i < 1000; i++) {
+			cache.put(i, "value" + i);
+		}
+		assertTrue(cache.getSize() <= 100);
+	}
+	
+	public void testSingleFlight() throws Exception {
+		final MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), SlowLookup.class, SlowLookup.class.getMethod("lookup", String.class));
+		InFlightCalls calls = service.getInFlightCalls();
+		assertNotNull(calls);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for (final String code : Arrays.asList("a", "fail")) {
+				SlowLookup.started = new CountDownLatch(1);
+				SlowLookup.release = new CountDownLatch(1);
+				int before = SlowLookup.lookups.get();
+				long coalesced = calls.getCoalescedCount();
+				List<Future<ComplexContent>> futures = new ArrayList<Future<ComplexContent>>();
+				for (int i = 0; i < 8; i++) {
+					futures.add(executor.submit(new Callable<ComplexContent>() {
+						@Override
+						public ComplexContent call() throws Exception {
+							ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+							input.set("code", code);
+							return service.newInstance().execute(ServiceUtils.newExecutionContext(), input);
+						}
+					}));
+				}
+				SlowLookup.started.await();
+				while (calls.getCoalescedCount() - coalesced < 7) {
+					Thread.sleep(1);
+				}
+				SlowLookup.release.countDown();
+				ServiceException leaderException = null;
+				for (Future<ComplexContent> future : futures) {
+					try {
+						assertEquals("label-a", future.get().get("label"));
+					}
+					catch (ExecutionException e) {
+						assertEquals("fail", code);
+						// every caller gets the exception of the leader
+						if (leaderException == null) {
+							leaderException = (ServiceException) e.getCause();
+						}
+						assertSame(leaderException, e.getCause());
+					}
+				}
+				assertEquals(before + 1, SlowLookup.lookups.get());
+				assertEquals(0, calls.getInFlight());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	public void testSingleFlightTimeout() throws Exception {
+		final MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), SlowLookup.class, SlowLookup.class.getMethod("lookupBriefly", String.class));
+		InFlightCalls calls = service.getInFlightCalls();
+		assertEquals(50, calls.getMaxWait());
+		SlowLookup.started = new CountDownLatch(1);
+		SlowLookup.release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<ComplexContent> leader = executor.submit(new Callable<ComplexContent>() {
+				@Override
+				public ComplexContent call() throws Exception {
+					ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+					input.set("code", "b");
+					return service.newInstance().execute(ServiceUtils.newExecutionContext(), input);
+				}
+			});
+			SlowLookup.started.await();
+			ComplexContent input = service.getServiceInterface().getInputDefinition().newInstance();
+			input.set("code", "b");
+			try {
+				service.newInstance().execute(ServiceUtils.newExecutionContext(), input);
+				fail("The coalesced call should stop waiting");
+			}
+			catch (ServiceException e) {
+				assertEquals(InFlightCalls.TIMED_OUT, e.getCode());
+			}
+			assertEquals(1, calls.getTimedOutCount());
+			// the leader is not affected
+			SlowLookup.release.countDown();
+			assertEquals("label-b", leader.get().get("label"));
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	public void testBulkhead() throws Exception {
+		final MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), LimitedService.class, LimitedService.class.getMethod("slow"));
+		Bulkhead bulkhead = service.getBulkhead();
+		assertEquals(2, bulkhead.getMaxConcurrent());
+		LimitedService.started = new CountDownLatch(2);
+		LimitedService.release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<ComplexContent>> futures = new ArrayList<Future<ComplexContent>>();
+			for (int i = 0; i < 2; i++) {
+				futures.add(executor.submit(new Callable<ComplexContent>() {
+					@Override
+					public ComplexContent call() throws Exception {
+						return service.newInstance().execute(ServiceUtils.newExecutionContext(), null);
+					}
+				}));
+			}
+			LimitedService.started.await();
+			assertEquals(2, bulkhead.getInFlight());
+			// a third call fails fast
+			try {
+				service.newInstance().execute(ServiceUtils.newExecutionContext(), null);
+				fail("The call should have been rejected");
+			}
+			catch (ServiceException e) {
+				assertEquals(Bulkhead.REJECTED, e.getCode());
+			}
+			assertEquals(1, bulkhead.getRejectedCount());
+			LimitedService.release.countDown();
+			for (Future<ComplexContent> future : futures) {
+				assertEquals("done", future.get().get("result"));
+			}
+			assertEquals(0, bulkhead.getInFlight());
+			assertEquals(2, bulkhead.getAcceptedCount());
+		}
+		finally {
+			executor.shutdown();
+		}
+		
+		// the other methods use the configured limit of the class
+		MethodService fast = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), LimitedService.class, LimitedService.class.getMethod("fast"));
+		assertNull(fast.getBulkhead());
+		POJOConfiguration configuration = new POJOConfiguration();
+		configuration.setMaxConcurrent(4);
+		configuration.apply(LimitedService.class);
+		try {
+			assertEquals(4, fast.getBulkhead().getMaxConcurrent());
+			assertEquals("done", fast.newInstance().execute(ServiceUtils.newExecutionContext(), null).get("result"));
+			assertEquals(1, fast.getBulkhead().getAcceptedCount());
+			assertEquals(2, service.getBulkhead().getMaxConcurrent());
+		}
+		finally {
+			Bulkhead.configure(LimitedService.class, 0, 0);
+		}
+		assertNull(fast.getBulkhead());
+		
+		// an annotation can not disable the limit
+		try {
+			new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), LimitedService.class, LimitedService.class.getMethod("unlimited")).getBulkhead();
+			fail("A limit of 0 should be rejected");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	public void testVirtualThreadRunner() throws Exception {
+		DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+		VirtualThreadServiceRunner runner = new VirtualThreadServiceRunner(1);
+		try {
+			final ExecutionContext context = ServiceUtils.newExecutionContext();
+			ExecutionContextProvider provider = new ExecutionContextProvider() {
+				@Override
+				public ExecutionContext newExecutionContext(Token primary, Token...alternatives) {
+					return context;
+				}
+			};
+			Greeter greeter = POJOUtils.newProxy(Greeter.class, provider, null, runner, new MethodService(resolver, GreeterImpl.class, Greeter.class.getMethod("greet", String.class)));
+			assertEquals("hello john", greeter.greet("john"));
+			AsyncGreeter asyncGreeter = POJOUtils.newProxy(AsyncGreeter.class, provider, null, runner, new MethodService(resolver, AsyncGreeterImpl.class, AsyncGreeter.class.getMethod("greet", String.class)));
+			assertEquals("hello jane", asyncGreeter.greet("jane").toCompletableFuture().get());
+			
+			// exceptions are reported in the result
+			MethodService upper = new MethodService(resolver, Test.class, Test.class.getMethod("upper", String.class));
+			ComplexContent input = upper.getServiceInterface().getInputDefinition().newInstance();
+			input.set("value", "fail");
+			assertEquals("JAVA-0", runner.run(upper, context, input).get().getException().getCode());
+			
+			// only one service runs at a time, the others wait without blocking the caller
+			MethodService slow = new MethodService(resolver, LimitedService.class, LimitedService.class.getMethod("slow"));
+			LimitedService.started = new CountDownLatch(1);
+			LimitedService.release = new CountDownLatch(1);
+			Future<ServiceResult> first = runner.run(slow, context, null);
+			Future<ServiceResult> second = runner.run(slow, context, null);
+			LimitedService.started.await();
+			assertEquals(1, runner.getRunning());
+			LimitedService.release.countDown();
+			assertEquals("done", first.get().getOutput().get("result"));
+			assertEquals("done", second.get().getOutput().get("result"));
+		}
+		finally {
+			runner.shutdown();
+		}
+	}
+	
+	public void testPlatformRunnerIsBounded() throws Exception {
+		VirtualThreadServiceRunner runner = new VirtualThreadServiceRunner(0, false);
+		try {
+			assertFalse(runner.isVirtual());
+			assertTrue(runner.getThreads() > 0);
+			MethodService upper = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), Test.class, Test.class.getMethod("upper", String.class));
+			ComplexContent input = upper.getServiceInterface().getInputDefinition().newInstance();
+			input.set("value", "a");
+			assertEquals("A", runner.run(upper, ServiceUtils.newExecutionContext(), input).get().getOutput().get("result"));
+		}
+		finally {
+			runner.shutdown();
+		}
+	}
+	
+	public void testRunnerErrors() throws Exception {
+		MethodService broken = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), BrokenBean.class, BrokenBean.class.getMethod("broken"));
+		VirtualThreadServiceRunner runner = new VirtualThreadServiceRunner(0, false);
+		BatchingServiceRunner batchingRunner = new BatchingServiceRunner(4, 10, TimeUnit.MILLISECONDS);
+		try {
+			// an error thrown by the service fails the call instead of leaving the caller waiting
+			for (ServiceRunner serviceRunner : Arrays.<ServiceRunner>asList(runner, batchingRunner)) {
+				ServiceResult result = serviceRunner.run(broken, ServiceUtils.newExecutionContext(), broken.getServiceInterface().getInputDefinition().newInstance()).get(5, TimeUnit.SECONDS);
+				assertEquals("JAVA-0", result.getException().getCode());
+				assertTrue(result.getException().getCause() instanceof LinkageError);
+			}
+		}
+		finally {
+			runner.shutdown();
+			batchingRunner.shutdown();
+		}
+	}
+	
+	public void testBatchingRunner() throws Exception {
+		DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+		BatchingServiceRunner runner = new BatchingServiceRunner(4, 50, TimeUnit.MILLISECONDS);
+		try {
+			MethodService name = new MethodService(resolver, PetNames.class, PetNames.class.getMethod("name", long.class));
+			int roundTrips = PetNames.roundTrips.get();
+			List<Future<ServiceResult>> futures = new ArrayList<Future<ServiceResult>>();
+			// calls with a different context but without a (different) principal share a batch
+			for (long id = 1; id <= 4; id++) {
+				ComplexContent input = name.getServiceInterface().getInputDefinition().newInstance();
+				input.set("id", id);
+				futures.add(runner.run(name, ServiceUtils.newExecutionContext(), input));
+			}
+			// the results are matched with the calls
+			for (int i = 0; i < 4; i++) {
+				assertEquals("pet" + (i + 1), futures.get(i).get().getOutput().get("result"));
+			}
+			// the whole batch is a single call to the batch method
+			assertEquals(roundTrips + 1, PetNames.roundTrips.get());
+			assertEquals(1, runner.getFullBatchCount());
+			
+			// a window that is not full is executed after the linger time, a failing batch method fails all its calls
+			futures.clear();
+			ExecutionContext context = ServiceUtils.newExecutionContext();
+			for (long id : new long[] { -1, 6 }) {
+				ComplexContent input = name.getServiceInterface().getInputDefinition().newInstance();
+				input.set("id", id);
+				futures.add(runner.run(name, context, input));
+			}
+			for (Future<ServiceResult> future : futures) {
+				assertEquals("JAVA-0", future.get().getException().getCode());
+			}
+			assertEquals(2, runner.getBatchCount());
+			assertEquals(6, runner.getCallCount());
+			assertEquals(6 / 8d, runner.getFillRatio());
+			// flushed windows are not kept around
+			assertEquals(0, runner.getOpenWindows());
+			
+			// services without a batch method are not collected, they run right away in their own service runtime
+			final ExecutionContext fixed = ServiceUtils.newExecutionContext();
+			Greeter greeter = POJOUtils.newProxy(Greeter.class, new ExecutionContextProvider() {
+				@Override
+				public ExecutionContext newExecutionContext(Token primary, Token...alternatives) {
+					return fixed;
+				}
+			}, null, runner, new MethodService(resolver, GreeterImpl.class, Greeter.class.getMethod("greet", String.class)));
+			assertEquals("hello john", greeter.greet("john"));
+			MethodService tracked = new MethodService(resolver, RuntimeAware.class, RuntimeAware.class.getMethod("tracked"));
+			assertEquals(true, runner.run(tracked, fixed, tracked.getServiceInterface().getInputDefinition().newInstance()).get().getOutput().get("result"));
+			assertEquals(2, runner.getBatchCount());
+		}
+		finally {
+			runner.shutdown();
+		}
+	}
+	
+	public void testSingletonScope() throws ServiceException {
+		DefinedServiceResolver resolver = DefinedServiceResolverFactory.getInstance().getResolver();
+		Service service = resolver.resolve(Counter.class.getName() + ".count");
+		int before = Counter.instances.get();
+		for (int i = 0; i < 5; i++) {
+			ComplexContent output = service.newInstance().execute(ServiceUtils.newExecutionContext(), service.getServiceInterface().getInputDefinition().newInstance());
+			assertEquals(i + 1, output.get("result"));
+		}
+		assertTrue(Counter.instances.get() - before <= 1);
+	}
+	
+	public void testResolverCache() {
+		POJOResolver resolver = new POJOResolver();
+		assertSame(resolver.resolve(Test.class.getName() + ".doSomething"), resolver.resolve(Test.class.getName() + ".doSomething"));
+		assertEquals(1, resolver.getHitCount());
+		assertNull(resolver.resolve("not.a.Service.method"));
+		assertNull(resolver.resolve("not.a.Service.method"));
+		assertEquals(1, resolver.getNegativeHitCount());
+		// ids that can not be a method are cached as well
+		assertNull(resolver.resolve("nomethod"));
+		assertNull(resolver.resolve("nomethod"));
+		assertEquals(2, resolver.getNegativeHitCount());
+		// the misses are bounded
+		POJOResolver bounded = new POJOResolver(null, 10);
+		for (int i = 0; i < 25; i++) {
+			bounded.resolve("not.a.Service" + i + ".method");
+		}
+		assertTrue(bounded.getCachedMisses() <= 10);
+		resolver.invalidate(Test.class.getClassLoader());
+		assertEquals(0, resolver.getCachedServices());
+		assertEquals(0, resolver.getCachedMisses());
+	}
+	
+	public void testConcurrentInterfaceCache() throws Exception {
+		final Method[] methods = Test.class.getDeclaredMethods();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<MethodServiceInterface[]>> futures = new ArrayList<Future<MethodServiceInterface[]>>();
+			for (int i = 0; i < 16; i++) {
+				futures.add(executor.submit(new Callable<MethodServiceInterface[]>() {
+					@Override
+					public MethodServiceInterface[] call() throws Exception {
+						start.await();
+						MethodServiceInterface[] result = new MethodServiceInterface[methods.length];
+						for (int j = 0; j < 1000; j++) {
+							for (int k = 0; k < methods.length; k++) {
+								MethodServiceInterface iface = MethodServiceInterface.wrap(methods[k]);
+								if (result[k] != null && result[k] != iface) {
+									throw new IllegalStateException("Different interface instance for " + methods[k]);
+								}
+								result[k] = iface;
+							}
+						}
+						return result;
+					}
+				}));
+			}
+			start.countDown();
+			MethodServiceInterface[] expected = futures.get(0).get();
+			for (Future<MethodServiceInterface[]> future : futures) {
+				MethodServiceInterface[] result = future.get();
+				for (int k = 0; k < methods.length; k++) {
+					assertSame(expected[k], result[k]);
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		// after eviction a new instance is built
+		MethodServiceInterface before = MethodServiceInterface.wrap(methods[0]);
+		MethodServiceInterface.evict(Test.class.getClassLoader());
+		assertNotSame(before, MethodServiceInterface.wrap(methods[0]));
+	}
+	
+	/**
+	 * Lookups and misses should not take a global lock, so they complete while another thread holds the class monitor that used to guard the cache
+	 */
+	public void testInterfaceCacheWithoutLock() throws Exception {
+		final Method[] methods = Test.class.getDeclaredMethods();
+		final MethodServiceInterface cached = MethodServiceInterface.wrap(methods[0]);
+		final CountDownLatch locked = new CountDownLatch(1), release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(9);
+		try {
+			executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					synchronized(MethodServiceInterface.class) {
+						locked.countDown();
+						release.await();
+					}
+					return null;
+				}
+			});
+			locked.await();
+			List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 8; i++) {
+				final boolean evict = i == 0;
+				futures.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						// one thread forces misses, the others hit the cache
+						if (evict) {
+							MethodServiceInterface.evict(Test.class.getClassLoader());
+							for (Method method : methods) {
+								MethodServiceInterface.wrap(method);
+							}
+							return true;
+						}
+						for (int j = 0; j < 1000; j++) {
+							MethodServiceInterface.wrap(methods[j % methods.length]);
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> future : futures) {
+				assertTrue(future.get(10, TimeUnit.SECONDS));
+			}
+			assertNotSame(cached, MethodServiceInterface.wrap(methods[0]));
+		}
+		finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+	
+	public void testProxy() throws NoSuchMethodException {
+		MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), GreeterImpl.class, Greeter.class.getMethod("greet", String.class));
+		Greeter greeter = POJOUtils.newProxy(Greeter.class, service, ServiceUtils.newExecutionContext());
+		assertEquals("hello john", greeter.greet("john"));
+		// the second call uses the cached dispatch
+		assertEquals("hello jane", greeter.greet("jane"));
+	}
+	
+	public void testGeneratedProxy() throws NoSuchMethodException {
+		MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), GreeterImpl.class, Greeter.class.getMethod("greet", String.class));
+		boolean generateProxies = POJOUtils.isGenerateProxies();
+		POJOUtils.setGenerateProxies(true);
+		try {
+			Greeter greeter = POJOUtils.newProxy(Greeter.class, service, ServiceUtils.newExecutionContext());
+			assertTrue(greeter instanceof GeneratedProxy);
+			assertEquals("hello john", greeter.greet("john"));
+			assertNotNull(POJOUtils.getInvocationHandler(greeter));
+			
+			// methods that clash with the ones of the generated superclass fall back to a java.lang.reflect.Proxy
+			assertNull(ProxyGenerator.getMethods(ClashingGreeter.class));
+			assertFalse(POJOUtils.newProxy(ClashingGreeter.class, service, ServiceUtils.newExecutionContext()) instanceof GeneratedProxy);
+		}
+		finally {
+			POJOUtils.setGenerateProxies(generateProxies);
+		}
+	}
+	
+	/**
+	 * Every method is called through both the generated proxy and a java.lang.reflect.Proxy, they should behave the same
+	 */
+	public void testGeneratedProxySignatures() throws Exception {
+		DefinedTypeResolver resolver = DefinedTypeResolverFactory.getInstance().getResolver();
+		List<Service> services = new ArrayList<Service>();
+		for (Method method : Signatures.class.getMethods()) {
+			// describe() is left to its default implementation
+			if (!method.getName().equals("describe")) {
+				services.add(new MethodService(resolver, SignaturesImpl.class, method));
+			}
+		}
+		Object [][] table = new Object [][] {
+			// long and double take two slots
+			{ "sum", new Object [] { 1l << 40, 2.5d, 3 }, (1l << 40) + 5 },
+			{ "scale", new Object [] { 1.5d, 4l, 0.5f }, 6.5d },
+			{ "matches", new Object [] { true, (byte) 2, (short) 2, 2l }, true },
+			{ "matches", new Object [] { true, (byte) 2, (short) 3, 2l }, false },
+			{ "record", new Object [] { "value" }, null },
+			{ "count", new Object [] { new Long [] { 1l, 2l, 3l } }, 6l },
+			{ "join", new Object [] { new String [] { "a", "b" }, "," }, "a,b" },
+			// default methods with and without a service
+			{ "twice", new Object [] { 1l << 33, 1.0d }, 3 * (1l << 33) },
+			{ "describe", new Object [] { 5l, new int [] { 1, 2 }, 0.5d, "test" }, "test5[1, 2]:0.5" },
+			// exceptions
+			{ "parse", new Object [] { "12" }, 12 },
+			{ "parse", new Object [] { "twelve" }, ServiceException.class },
+			{ "fail", new Object [] { "twelve" }, UndeclaredThrowableException.class },
+		};
+		boolean generateProxies = POJOUtils.isGenerateProxies();
+		try {
+			for (boolean generate : new boolean [] { true, false }) {
+				POJOUtils.setGenerateProxies(generate);
+				Signatures proxy = POJOUtils.newProxy(Signatures.class, new ExecutionContextProvider() {
+					@Override
+					public ExecutionContext newExecutionContext(Token primary, Token...alternatives) {
+						return ServiceUtils.newExecutionContext();
+					}
+				}, null, services.toArray(new Service[services.size()]));
+				assertEquals(generate, proxy instanceof GeneratedProxy);
+				SignaturesImpl.recorded.clear();
+				for (Object [] row : table) {
+					Method method = getMethod(Signatures.class, (String) row[0]);
+					Object result;
+					try {
+						result = method.invoke(proxy, (Object []) row[1]);
+					}
+					catch (InvocationTargetException e) {
+						result = e.getCause().getClass();
+					}
+					assertEquals(row[0] + " (generated: " + generate + ")", row[2], result);
+				}
+				assertEquals(Arrays.asList("value"), SignaturesImpl.recorded);
+			}
+		}
+		finally {
+			POJOUtils.setGenerateProxies(generateProxies);
+		}
+	}
+	
+	private static Method getMethod(Class<?> clazz, String name) {
+		for (Method method : clazz.getMethods()) {
+			if (method.getName().equals(name)) {
+				return method;
+			}
+		}
+		throw new IllegalArgumentException("No method: " + name);
+	}
+	
+	public void testGeneratedProxyVerification() throws Exception {
+		String className = "be.nabu.libs.services.pojo.generated.VerifiedProxy";
+		List<Integer> framePositions = new ArrayList<Integer>();
+		byte [] bytes = ProxyGenerator.write(className, Signatures.class, ProxyGenerator.getMethods(Signatures.class), framePositions);
+		assertNotNull(ProxyGenerator.define(Signatures.class, className, bytes));
+		
+		// one frame per default method
+		assertEquals(2, framePositions.size());
+		// move the stack map frame of the first default method so the branch target no longer has a frame
+		int position = framePositions.get(0);
+		assertTrue(((bytes[position] & 0xff) << 8 | (bytes[position + 1] & 0xff)) > 0);
+		bytes[position + 1]--;
+		try {
+			ProxyGenerator.define(Signatures.class, className, bytes);
+			fail("The verifier should reject a misplaced frame");
+		}
+		catch (VerifyError e) {
+			// expected
+		}
+	}
+	
+	public void testNestedAsyncCalls() throws Exception {
+		MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), RelayImpl.class, Relay.class.getMethod("relay", int.class));
+		RelayImpl.proxy = POJOUtils.newProxy(Relay.class, service, ServiceUtils.newExecutionContext());
+		// far more calls than threads, each of them waits for nested calls on the same executor
+		List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+		for (int i = 0; i < 64; i++) {
+			futures.add(RelayImpl.proxy.relay(2).toCompletableFuture());
+		}
+		for (CompletableFuture<String> future : futures) {
+			assertEquals("done", future.get(10, TimeUnit.SECONDS));
+		}
+		
+		// a completion stage that is not a future is resolved as well
+		MethodService stage = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), RelayImpl.class, RelayImpl.class.getMethod("stage", String.class));
+		ComplexContent input = stage.getServiceInterface().getInputDefinition().newInstance();
+		input.set("value", "a");
+		assertEquals("a", stage.newInstance().execute(ServiceUtils.newExecutionContext(), input).get("result"));
+	}
+	
+	public void testAsyncProxy() throws Exception {
+		final MethodService service = new MethodService(DefinedTypeResolverFactory.getInstance().getResolver(), AsyncGreeterImpl.class, AsyncGreeter.class.getMethod("greet", String.class));
+		final ExecutionContext context = ServiceUtils.newExecutionContext();
+		AsyncGreeter greeter = POJOUtils.newProxy(AsyncGreeter.class, service, context);
+		assertEquals("hello john", greeter.greet("john").toCompletableFuture().get());
+		// the implementation inherits the annotation, other methods that return a future are left alone
+		assertTrue(MethodServiceInterface.isAsync(AsyncGreeterImpl.class.getMethod("greet", String.class)));
+		assertFalse(MethodServiceInterface.isAsync(ExecutorService.class.getMethod("submit", Callable.class)));
+		
+		// a runner that returns a plain future
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			ServiceRunner runner = new ServiceRunner() {
+				@Override
+				public Future<ServiceResult> run(final Service service, final ExecutionContext executionContext, final ComplexContent input, ServiceRunnableObserver...observers) {
+					return executor.submit(new Callable<ServiceResult>() {
+						@Override
+						public ServiceResult call() throws Exception {
+							final ComplexContent output = service.newInstance().execute(executionContext, input);
+							return new ServiceResult() {
+								@Override
+								public ComplexContent getOutput() {
+									return output;
+								}
+								@Override
+								public ServiceException getException() {
+									return null;
+								}
+							};
+						}
+					});
+				}
+			};
+			greeter = POJOUtils.newProxy(AsyncGreeter.class, new ExecutionContextProvider() {
+				@Override
+				public ExecutionContext newExecutionContext(Token primary, Token...alternatives) {
+					return context;
+				}
+			}, null, runner, service);
+			assertEquals("hello jane", greeter.greet("jane").toCompletableFuture().get());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	public static class FixedTypeResolver implements DefinedTypeResolver {
+		private DefinedType type;
+		public FixedTypeResolver(DefinedType type) {
+			this.type = type;
+		}
+		@Override
+		public DefinedType resolve(String id) {
+			return type;
+		}
+	}
+	
+	@AsyncResult
+	public interface Relay {
+		@WebResult(name = "result")
+		public CompletionStage<String> relay(@WebParam(name = "depth") int depth);
+	}
+	
+	public static class RelayImpl implements Relay {
+		private static Relay proxy;
+		@Override
+		public CompletionStage<String> relay(int depth) {
+			return CompletableFuture.completedFuture(depth == 0 ? "done" : proxy.relay(depth - 1).toCompletableFuture().join());
+		}
+		@AsyncResult
+		@WebResult(name = "result")
+		public CompletionStage<String> stage(@WebParam(name = "value") String value) throws Exception {
+			CompletableFuture<String> future = CompletableFuture.completedFuture(value);
+			try {
+				// java 9+ has a stage that is not a future
+				return (CompletionStage<String>) CompletableFuture.class.getMethod("minimalCompletionStage").invoke(future);
+			}
+			catch (NoSuchMethodException e) {
+				return future;
+			}
+		}
+	}
+	
+	@AsyncResult
+	public interface AsyncGreeter {
+		@WebResult(name = "result")
+		public CompletionStage<String> greet(@WebParam(name = "name") String name);
+	}
+	
+	public static class AsyncGreeterImpl implements AsyncGreeter {
+		@Override
+		public CompletionStage<String> greet(String name) {
+			return CompletableFuture.completedFuture("hello " + name);
+		}
+	}
+	
+	public interface CodeTable {
+		@WebResult(name = "label")
+		public String lookup(@WebParam(name = "code") String code);
+	}
+	
+	public static class CodeTableImpl implements CodeTable {
+		private static AtomicInteger lookups = new AtomicInteger();
+		@Override
+		@CacheResult(maxEntries = 2)
+		public String lookup(String code) {
+			lookups.incrementAndGet();
+			return "label-" + code;
+		}
+		@WebResult(name = "label")
+		@CacheResult(timeToLive = 1)
+		public String expiring(@WebParam(name = "code") String code) {
+			lookups.incrementAndGet();
+			return "label-" + code;
+		}
+		@WebResult(name = "label")
+		@CacheResult
+		public String describe(@WebParam(name = "pet") Pet pet) {
+			return "label-" + pet.getName();
+		}
+		@WebResult(name = "pet")
+		@CacheResult
+		public Pet adopt(@WebParam(name = "name") String name) {
+			Pet pet = new Pet();
+			pet.setName(name);
+			return pet;
+		}
+		private static CountDownLatch started, release;
+		@WebResult(name = "label")
+		@CacheResult
+		public String slow(@WebParam(name = "code") String code) throws InterruptedException {
+			started.countDown();
+			release.await();
+			return "label-" + code;
+		}
+	}
+	
+	@SingleFlight
+	public static class SlowLookup {
+		private static AtomicInteger lookups = new AtomicInteger();
+		private static CountDownLatch started, release;
+		@WebResult(name = "label")
+		public String lookup(@WebParam(name = "code") String code) throws InterruptedException {
+			lookups.incrementAndGet();
+			started.countDown();
+			release.await();
+			if (code.equals("fail")) {
+				throw new IllegalArgumentException("Failing on purpose");
+			}
+			return "label-" + code;
+		}
+		@SingleFlight(maxWait = 50)
+		@WebResult(name = "label")
+		public String lookupBriefly(@WebParam(name = "code") String code) throws InterruptedException {
+			return lookup(code);
+		}
+	}
+	
+	public static class LimitedService {
+		private static CountDownLatch started, release;
+		@WebResult(name = "result")
+		@ConcurrencyLimit(2)
+		public String slow() throws InterruptedException {
+			started.countDown();
+			release.await();
+			return "done";
+		}
+		@WebResult(name = "result")
+		public String fast() {
+			return "done";
+		}
+		@WebResult(name = "result")
+		@ConcurrencyLimit(0)
+		public String unlimited() {
+			return "done";
+		}
+	}
+	
+	public interface PetExport {
+		@WebResult(name = "pets")
+		public Iterator<Pet> export(@WebParam(name = "amount") int amount);
+		@WebResult(name = "pets")
+		public Stream<Pet> stream(@WebParam(name = "amount") int amount);
+		@WebResult(name = "pets")
+		public List<Pet> list(@WebParam(name = "amount") int amount);
+	}
+	
+	public static class PetExportImpl implements PetExport {
+		private static AtomicInteger generated = new AtomicInteger();
+		@Override
+		public Iterator<Pet> export(final int amount) {
+			return new Iterator<Pet>() {
+				private int index;
+				@Override
+				public boolean hasNext() {
+					return index < amount;
+				}
+				@Override
+				public Pet next() {
+					generated.incrementAndGet();
+					Pet pet = new Pet();
+					pet.setName("pet" + index++);
+					return pet;
+				}
+			};
+		}
+		@Override
+		public Stream<Pet> stream(int amount) {
+			List<Pet> pets = new ArrayList<Pet>();
+			for (int i = 0; i < amount; i++) {
+				Pet pet = new Pet();
+				pet.setName("pet" + i);
+				pets.add(pet);
+			}
+			return pets.stream();
+		}
+		@Override
+		public List<Pet> list(int amount) {
+			return stream(amount).collect(Collectors.toList());
+		}
+	}
+	
+	public interface Signatures {
+		@WebResult(name = "result")
+		public long sum(@WebParam(name = "first") long first, @WebParam(name = "second") double second, @WebParam(name = "third") int third);
+		@WebResult(name = "result")
+		public double scale(@WebParam(name = "value") double value, @WebParam(name = "factor") long factor, @WebParam(name = "offset") float offset);
+		@WebResult(name = "result")
+		public boolean matches(@WebParam(name = "flag") boolean flag, @WebParam(name = "small") byte small, @WebParam(name = "medium") short medium, @WebParam(name = "large") long large);
+		public void record(@WebParam(name = "value") String value);
+		@WebResult(name = "result")
+		public long count(@WebParam(name = "values") Long [] values);
+		@WebResult(name = "result")
+		public String join(@WebParam(name = "values") String [] values, @WebParam(name = "separator") String separator);
+		@WebResult(name = "result")
+		public int parse(@WebParam(name = "value") String value) throws ServiceException;
+		@WebResult(name = "result")
+		public int fail(@WebParam(name = "value") String value);
+		@WebResult(name = "result")
+		public default long twice(@WebParam(name = "value") long value, @WebParam(name = "weight") double weight) {
+			return 2 * value;
+		}
+		@WebResult(name = "result")
+		public default String describe(@WebParam(name = "id") long id, @WebParam(name = "path") int [] path, @WebParam(name = "score") double score, @WebParam(name = "prefix") String prefix) {
+			return prefix + id + Arrays.toString(path) + ":" + score;
+		}
+	}
+	
+	public static class SignaturesImpl implements Signatures {
+		private static List<String> recorded = new ArrayList<String>();
+		@Override
+		public long sum(long first, double second, int third) {
+			return first + (long) second + third;
+		}
+		@Override
+		public double scale(double value, long factor, float offset) {
+			return value * factor + offset;
+		}
+		@Override
+		public boolean matches(boolean flag, byte small, short medium, long large) {
+			return flag && small == medium && medium == large;
+		}
+		@Override
+		public void record(String value) {
+			recorded.add(value);
+		}
+		@Override
+		public long count(Long [] values) {
+			long count = 0;
+			for (long value : values) {
+				count += value;
+			}
+			return count;
+		}
+		@Override
+		public String join(String [] values, String separator) {
+			return String.join(separator, values);
+		}
+		@Override
+		public int parse(String value) throws ServiceException {
+			try {
+				return Integer.parseInt(value);
+			}
+			catch (NumberFormatException e) {
+				throw new ServiceException("TEST-0", "Not a number: " + value, e);
+			}
+		}
+		@Override
+		public int fail(String value) {
+			try {
+				return parse(value);
+			}
+			catch (ServiceException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+		// the service is used instead of the default implementation
+		@Override
+		public long twice(long value, double weight) {
+			return 3 * value;
+		}
+	}
+	
+	public static class PetNames {
+		private static AtomicInteger roundTrips = new AtomicInteger();
+		@BatchedBy("names")
+		@WebResult(name = "result")
+		public String name(@WebParam(name = "id") long id) {
+			return names(Arrays.asList(id)).get(0);
+		}
+		public List<String> names(List<Long> ids) {
+			roundTrips.incrementAndGet();
+			List<String> names = new ArrayList<String>();
+			for (Long id : ids) {
+				if (id < 0) {
+					throw new IllegalArgumentException("Unknown pet: " + id);
+				}
+				names.add("pet" + id);
+			}
+			return names;
+		}
+	}
+	
+	public static class BrokenBean {
+		static {
+			if (Boolean.TRUE) {
+				throw new IllegalStateException("Failing on purpose");
+			}
+		}
+		@WebResult(name = "result")
+		public String broken() {
+			return "unreachable";
+		}
+	}
+	
+	public static class RuntimeAware {
+		@WebResult(name = "result")
+		public boolean tracked() {
+			return ServiceRuntime.getRuntime() != null;
+		}
+	}
+	
+	public interface Greeter {
+		@WebResult(name = "result")
+		public String greet(@WebParam(name = "name") String name);
+	}
+	
+	public interface ClashingGreeter extends Greeter {
+		public boolean hasService(int index);
+	}
+	
+	public static class GreeterImpl implements Greeter {
+		@Override
+		public String greet(String name) {
+			return "hello " + name;
+		}
+	}
+	
+	@POJOScope(BeanScope.SINGLETON)
+	public static class Counter {
+		private static AtomicInteger instances = new AtomicInteger();
+		private int count;
+		public Counter() {
+			instances.incrementAndGet();
+		}
+		@WebResult(name = "result")
+		public int count() {
+			return ++count;
+		}
+	}
+	
+	@POJOScope(value = BeanScope.POOLED, poolSize = 1)
+	public static class PooledUpper {
+		private static AtomicInteger instances = new AtomicInteger();
+		public PooledUpper() {
+			instances.incrementAndGet();
+		}
+		@WebResult(name = "result")
+		public String upper(@WebParam(name = "value") String value) {
+			return value.toUpperCase();
+		}
+	}
+	
+	public interface Person {
+		public String getName();
+		public void setName(String name);
+		public int getAge();
+		public Person getPartner();
+		public List<Person> getChildren();
+		@XmlElement(name = "nickname")
+		public String getAlias();
+		public void setAlias(String alias);
+		@XmlTransient
+		public String getDisplayName();
+	}
+	
+	public static class PersonService {
+		@LazyBean
+		@WebResult(name = "description")
+		public String describe(@WebParam(name = "person") Person person) {
+			return person.getName();
+		}
+	}
+	
+	public static class Pet {
+		private String name;
+		private int age;
+		private List<Pet> friends;
+		
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		public int getAge() {
+			return age;
+		}
+		public void setAge(int age) {
+			this.age = age;
+		}
+		public List<Pet> getFriends() {
+			return friends;
+		}
+		public void setFriends(List<Pet> friends) {
+			this.friends = friends;
+		}
+	}
+	
+	public static class Owner {
+		private String name, secret;
+		
+		@XmlElement(name = "fullName")
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		@XmlTransient
+		public String getSecret() {
+			return secret;
+		}
+		public void setSecret(String secret) {
+			this.secret = secret;
+		}
+	}
+	
+	public static class PetService {
+		@WebResult(name = "count")
+		public int count(@WebParam(name = "pets") List<Pet> pets) {
+			return pets.size();
+		}
+		@WebResult(name = "names")
+		public String names(@WebParam(name = "pets") Iterable<Pet> pets) {
+			StringBuilder builder = new StringBuilder();
+			for (Pet pet : pets) {
+				builder.append(pet.getName());
+			}
+			return builder.toString();
+		}
+		@WebResult(name = "names")
+		public String first(@WebParam(name = "pets") Iterator<Pet> pets) {
+			return pets.next().getName();
+		}
+		@WebResult(name = "total")
+		public int total(@WebParam(name = "pets") Stream<Pet> pets) {
+			int total = 0;
+			for (Pet pet : pets.collect(Collectors.toList())) {
+				total += pet.getAge();
+			}
+			return total;
+		}
+	}
+	
 	public static class Test {
 		@WebResult(name = "result")
 		public String doSomething(@WebParam(name="a") String a, @WebParam(name="b") String b) {
 			return a + " " + b;
 		}
+		@WebResult(name = "result")
+		public String upper(@WebParam(name="value") String value) {
+			if (value.equals("fail")) {
+				throw new IllegalArgumentException("Failing on purpose");
+			}
+			return value.toUpperCase();
+		}
+		@WebResult(name = "result")
+		public String join(@WebParam(name="values") String[] values) {
+			return String.join(",", values);
+		}
 	}
 }